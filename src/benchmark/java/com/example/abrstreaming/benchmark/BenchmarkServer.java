@@ -0,0 +1,87 @@
+package com.example.abrstreaming.benchmark;
+
+import com.example.abrstreaming.AbrStreamingApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The application running in this JVM against an {@link S3Stub}, on an
+ * ephemeral port. Working files go to {@code workDirectory/output}, which is
+ * emptied first so no jobs of an earlier run are resumed.
+ *
+ * <p>The application resolves its output directory from {@code user.dir},
+ * so this sets that property for the whole JVM; run one server per JVM.
+ */
+public class BenchmarkServer implements Closeable {
+
+    public static final String BUCKET = "storage-bucket";
+
+    private final S3Stub stub;
+    private final ConfigurableApplicationContext context;
+    private final String baseUrl;
+
+    private BenchmarkServer(S3Stub stub, ConfigurableApplicationContext context) {
+        this.stub = stub;
+        this.context = context;
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        this.baseUrl = "http://127.0.0.1:" + port;
+    }
+
+    /**
+     * Starts the stub and the application. {@code properties} override the
+     * application's own, e.g. {@code delivery.mode} or {@code processing.pipeline}.
+     */
+    public static BenchmarkServer start(Path workDirectory, long stubFirstByteMillis, long stubBytesPerSecond,
+                                        Map<String, Object> properties) throws IOException {
+        Path absolute = workDirectory.toAbsolutePath();
+        FileSystemUtils.deleteRecursively(absolute.resolve("output"));
+        Files.createDirectories(absolute);
+        System.setProperty("user.dir", absolute.toString());
+
+        S3Stub stub = S3Stub.start(stubFirstByteMillis, stubBytesPerSecond);
+        Map<String, Object> merged = new HashMap<>();
+        merged.put("server.port", "0");
+        merged.put("minio.endpoint", stub.getEndpoint());
+        merged.put("minio.bucket", BUCKET);
+        merged.put("cache.disk.path", absolute.resolve("output/segment-cache").toString());
+        merged.put("spring.main.banner-mode", "off");
+        merged.put("logging.level.root", "WARN");
+        merged.put("logging.level.com.example.abrstreaming", "WARN");
+        merged.putAll(properties);
+        // As command line arguments, which take precedence over application.properties
+        String[] arguments = merged.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+        try {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(AbrStreamingApplication.class)
+                    .run(arguments);
+            return new BenchmarkServer(stub, context);
+        } catch (RuntimeException e) {
+            stub.close();
+            throw e;
+        }
+    }
+
+    public S3Stub getStub() {
+        return stub;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        stub.close();
+    }
+}
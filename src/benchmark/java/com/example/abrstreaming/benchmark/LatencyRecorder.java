@@ -0,0 +1,81 @@
+package com.example.abrstreaming.benchmark;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Latencies, bytes and errors of the requests of a load run, per operation.
+ * Every sample is kept, so percentiles are exact.
+ */
+public class LatencyRecorder {
+
+    private final Map<String, Series> series = new ConcurrentSkipListMap<>();
+
+    private static class Series {
+        long[] nanos = new long[1024];
+        int count;
+        long errors;
+        long bytes;
+
+        synchronized void add(long elapsedNanos, long length) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsedNanos;
+            bytes += length;
+        }
+
+        synchronized void fail() {
+            errors++;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(nanos, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    public void record(String operation, long elapsedNanos, long bytes) {
+        series.computeIfAbsent(operation, key -> new Series()).add(elapsedNanos, bytes);
+    }
+
+    public void recordError(String operation) {
+        series.computeIfAbsent(operation, key -> new Series()).fail();
+    }
+
+    /**
+     * Prints one line per operation: requests, errors, latency percentiles in
+     * milliseconds, and request and byte throughput over {@code seconds}.
+     */
+    public void print(PrintStream out, double seconds) {
+        out.printf(Locale.ROOT, "%-16s %8s %7s %9s %9s %9s %9s %10s %10s%n",
+                "operation", "requests", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms", "req/s", "MB/s");
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            long[] sorted = s.sorted();
+            long errors;
+            long bytes;
+            synchronized (s) {
+                errors = s.errors;
+                bytes = s.bytes;
+            }
+            out.printf(Locale.ROOT, "%-16s %8d %7d %9.1f %9.1f %9.1f %9.1f %10.1f %10.2f%n",
+                    entry.getKey(), sorted.length, errors,
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6,
+                    sorted.length / seconds, bytes / seconds / (1024 * 1024));
+        }
+    }
+
+    static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
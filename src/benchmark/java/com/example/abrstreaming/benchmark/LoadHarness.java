@@ -0,0 +1,449 @@
+package com.example.abrstreaming.benchmark;
+
+import com.example.abrstreaming.service.HlsPackaging;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test of ingest and playback on one machine, fully offline: bulk
+ * uploads of synthetic sources, then concurrent HLS viewers, reporting p50,
+ * p90 and p99 latency and throughput per request type, per-job queueing and
+ * processing times, and the time spent in each processing stage (from the
+ * {@code abr.processing.stage} meters).
+ *
+ * <p>By default the application runs in this JVM against an {@link S3Stub}
+ * in place of Minio. Without ffmpeg on the PATH the ingest phase is skipped
+ * and viewers play a synthetic video seeded into the stub.
+ *
+ * <p>Options, as {@code --name=value}:
+ * <ul>
+ *   <li>{@code target}: base URL of a running instance to load instead</li>
+ *   <li>{@code uploads} (4), {@code upload-concurrency} (4), {@code tenants}
+ *   (1), {@code priority} (normal): sources uploaded through
+ *   {@code /api/videos/upload}, how many at once, and the tenants they are
+ *   spread over. Uploads answered 429 are retried after Retry-After.</li>
+ *   <li>{@code source-seconds} (30), {@code source-size} (1280x720): the
+ *   synthetic sources, see {@link SyntheticMedia}</li>
+ *   <li>{@code viewers} (50), {@code viewer-seconds} (60),
+ *   {@code segment-interval-ms} (0): concurrent viewers, how long they play,
+ *   and the pause between segments; 0 fetches as fast as possible,
+ *   10000 paces like a real player</li>
+ *   <li>{@code video-ids}: comma-separated videos to play instead of the
+ *   uploaded ones</li>
+ *   <li>{@code stub-latency-ms} (5), {@code stub-mbps} (0 = unlimited):
+ *   time to first byte and bandwidth of the Minio stand-in</li>
+ *   <li>{@code work-dir} (target/benchmark/load): sources and the
+ *   application's output directory</li>
+ * </ul>
+ * Any other option with a dot in its name, such as
+ * {@code --processing.pipeline=chunked}, is set as a property of the
+ * application started here.
+ */
+public class LoadHarness {
+
+    private static final Pattern STAGE_SAMPLE =
+            Pattern.compile("^abr_processing_stage_seconds_(sum|count)\\{([^}]*)}\\s+(\\S+)");
+    private static final Pattern STAGE_LABEL = Pattern.compile("stage=\"([^\"]*)\"");
+    private static final String SEEDED_VIDEO_ID = "synthetic-video";
+    private static final int SEEDED_SEGMENTS = 12;
+
+    private final Map<String, String> options;
+    private final Map<String, Object> properties;
+    private final Path workDirectory;
+    private final PrintStream out = System.out;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private BenchmarkServer server;
+    private String baseUrl;
+
+    /** A source accepted for processing, and its job once it has ended. */
+    private static class Upload {
+        final Path source;
+        final String videoId;
+        JsonNode job;
+
+        Upload(Path source, String videoId) {
+            this.source = source;
+            this.videoId = videoId;
+        }
+    }
+
+    LoadHarness(Map<String, String> options, Map<String, Object> properties) {
+        this.options = options;
+        this.properties = properties;
+        this.workDirectory = Path.of(options.getOrDefault("work-dir", "target/benchmark/load"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        Map<String, Object> properties = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                continue;
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.contains(".")) {
+                properties.put(name, value);
+            } else {
+                options.put(name, value);
+            }
+        }
+        LoadHarness harness = new LoadHarness(options, properties);
+        try {
+            harness.run();
+        } finally {
+            harness.close();
+        }
+    }
+
+    void run() throws Exception {
+        String target = options.get("target");
+        if (target != null) {
+            baseUrl = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        } else {
+            long bytesPerSecond = longOption("stub-mbps", 0) * 1_000_000 / 8;
+            server = BenchmarkServer.start(workDirectory, longOption("stub-latency-ms", 5), bytesPerSecond, properties);
+            baseUrl = server.getBaseUrl();
+        }
+        out.println("Target: " + baseUrl);
+
+        List<String> videoIds = new ArrayList<>();
+        if (options.containsKey("video-ids")) {
+            videoIds.addAll(List.of(options.get("video-ids").split(",")));
+        }
+        List<Upload> uploads = ingest();
+        for (Upload upload : uploads) {
+            if (upload.job != null && "READY".equals(upload.job.path("status").asText())) {
+                videoIds.add(upload.videoId);
+            }
+        }
+        if (videoIds.isEmpty() && server != null) {
+            SyntheticMedia.seedVideo(server.getStub(), BenchmarkServer.BUCKET, SEEDED_VIDEO_ID, SEEDED_SEGMENTS);
+            videoIds.add(SEEDED_VIDEO_ID);
+        }
+        play(videoIds);
+        printServerSide();
+    }
+
+    void close() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private List<Upload> ingest() throws Exception {
+        int count = intOption("uploads", 4);
+        if (count == 0) {
+            return List.of();
+        }
+        if (!SyntheticMedia.isFfmpegAvailable()) {
+            out.println("ffmpeg not found, skipping the ingest phase");
+            return List.of();
+        }
+        String[] size = options.getOrDefault("source-size", "1280x720").split("x");
+        int seconds = intOption("source-seconds", 30);
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sources.add(SyntheticMedia.generateSource(workDirectory.resolve("sources"),
+                    Integer.parseInt(size[0]), Integer.parseInt(size[1]), seconds, i));
+        }
+
+        int tenants = intOption("tenants", 1);
+        LatencyRecorder recorder = new LatencyRecorder();
+        ExecutorService pool = Executors.newFixedThreadPool(intOption("upload-concurrency", 4));
+        long started = System.nanoTime();
+        List<Future<Upload>> accepted = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path source = sources.get(i);
+            String tenant = "tenant-" + (i % tenants);
+            accepted.add(pool.submit(() -> upload(recorder, source, tenant)));
+        }
+        List<Upload> uploads = new ArrayList<>();
+        for (Future<Upload> future : accepted) {
+            uploads.add(future.get());
+        }
+        pool.shutdown();
+        double uploadSeconds = (System.nanoTime() - started) / 1e9;
+
+        awaitJobs(uploads, longOption("ingest-timeout-seconds", 3600));
+        double totalSeconds = (System.nanoTime() - started) / 1e9;
+
+        out.printf(Locale.ROOT, "%n== Ingest: %d sources of %d s, %d at once ==%n", count, seconds,
+                intOption("upload-concurrency", 4));
+        recorder.print(out, uploadSeconds);
+        out.printf(Locale.ROOT, "%n%-38s %-9s %9s %9s %9s %9s%n",
+                "video", "status", "queued s", "playable", "ready s", "x speed");
+        int ready = 0;
+        for (Upload upload : uploads) {
+            JsonNode job = upload.job;
+            String status = job != null ? job.path("status").asText() : "TIMEOUT";
+            Instant created = instant(job, "createdAt");
+            Instant startedAt = instant(job, "startedAt");
+            Instant completed = instant(job, "completedAt");
+            double processing = between(startedAt, completed);
+            out.printf(Locale.ROOT, "%-38s %-9s %9.1f %9.1f %9.1f %9.2f%n", upload.videoId, status,
+                    between(created, startedAt), between(created, instant(job, "playableAt")),
+                    between(created, completed), processing > 0 ? seconds / processing : 0);
+            if (status.equals("READY")) {
+                ready++;
+            }
+        }
+        out.printf(Locale.ROOT, "%d of %d ready in %.1f s: %.2f jobs/min, %.2f s of media per s%n",
+                ready, count, totalSeconds, ready * 60 / totalSeconds, ready * seconds / totalSeconds);
+        return uploads;
+    }
+
+    private Upload upload(LatencyRecorder recorder, Path source, String tenant) throws Exception {
+        String boundary = "load-harness-" + UUID.randomUUID();
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\""
+                + source.getFileName() + "\"\r\nContent-Type: video/mp4\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        long bytes = Files.size(source);
+        while (true) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/videos/upload?priority="
+                            + options.getOrDefault("priority", "normal")))
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .header("X-Tenant-Id", tenant)
+                    .POST(HttpRequest.BodyPublishers.concat(HttpRequest.BodyPublishers.ofByteArray(head),
+                            HttpRequest.BodyPublishers.ofFile(source), HttpRequest.BodyPublishers.ofByteArray(tail)))
+                    .build();
+            long started = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long elapsed = System.nanoTime() - started;
+            if (response.statusCode() == 202) {
+                recorder.record("upload", elapsed, bytes);
+                return new Upload(source, response.body().trim());
+            }
+            if (response.statusCode() != 429) {
+                recorder.recordError("upload");
+                throw new IOException("Upload of " + source + " answered " + response.statusCode()
+                        + ": " + response.body());
+            }
+            recorder.record("upload 429", elapsed, 0);
+            long retryAfter = response.headers().firstValueAsLong("Retry-After").orElse(5);
+            TimeUnit.SECONDS.sleep(retryAfter);
+        }
+    }
+
+    private void awaitJobs(List<Upload> uploads, long timeoutSeconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        List<Upload> pending = new ArrayList<>(uploads);
+        while (!pending.isEmpty() && System.nanoTime() < deadline) {
+            for (Upload upload : new ArrayList<>(pending)) {
+                String status = get(baseUrl + "/api/videos/" + upload.videoId + "/status");
+                if (status == null) {
+                    continue;
+                }
+                JsonNode job = objectMapper.readTree(status);
+                String state = job.path("status").asText();
+                if (state.equals("READY") || state.equals("FAILED") || state.equals("CANCELLED")) {
+                    upload.job = job;
+                    pending.remove(upload);
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(500);
+        }
+    }
+
+    private void play(List<String> videoIds) throws Exception {
+        int viewers = intOption("viewers", 50);
+        if (viewers == 0 || videoIds.isEmpty()) {
+            out.println("No viewers or no videos to play, skipping the playback phase");
+            return;
+        }
+        long seconds = longOption("viewer-seconds", 60);
+        long interval = longOption("segment-interval-ms", 0);
+        LatencyRecorder recorder = new LatencyRecorder();
+        ExecutorService pool = Executors.newFixedThreadPool(viewers);
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < viewers; i++) {
+            int viewer = i;
+            pool.submit(() -> watch(recorder, videoIds, viewer, deadline, interval));
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 120, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        out.printf(Locale.ROOT, "%n== Playback: %d viewers of %d videos for %.0f s ==%n",
+                viewers, videoIds.size(), elapsed);
+        recorder.print(out, elapsed);
+    }
+
+    /**
+     * Plays like a player starting a video: the master playlist, a random
+     * variant, then its segments in order, and on to the next video.
+     */
+    private Void watch(LatencyRecorder recorder, List<String> videoIds, int viewer, long deadline, long interval)
+            throws InterruptedException {
+        Random random = new Random(viewer);
+        int next = viewer;
+        while (System.nanoTime() < deadline) {
+            String masterUrl = baseUrl + "/api/videos/" + videoIds.get(next++ % videoIds.size()) + "/master.m3u8";
+            byte[] master = fetch(recorder, "master", masterUrl);
+            List<String> variants = master != null ? getUris(master) : List.of();
+            if (variants.isEmpty()) {
+                TimeUnit.MILLISECONDS.sleep(100);
+                continue;
+            }
+            String variantUrl = resolve(masterUrl, variants.get(random.nextInt(variants.size())));
+            byte[] variant = fetch(recorder, "variant", variantUrl);
+            if (variant == null) {
+                TimeUnit.MILLISECONDS.sleep(100);
+                continue;
+            }
+            for (String uri : getUris(variant)) {
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                String url = resolve(variantUrl, uri);
+                // Pre-signed URLs go straight to object storage
+                String operation = url.startsWith(baseUrl) ? "segment" : "segment (minio)";
+                fetch(recorder, operation, url);
+                TimeUnit.MILLISECONDS.sleep(interval);
+            }
+        }
+        return null;
+    }
+
+    private byte[] fetch(LatencyRecorder recorder, String operation, String url) {
+        long started = System.nanoTime();
+        try {
+            HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                recorder.recordError(operation);
+                return null;
+            }
+            recorder.record(operation, System.nanoTime() - started, response.body().length);
+            return response.body();
+        } catch (IOException e) {
+            recorder.recordError(operation);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the URIs of a playlist in order, including initialization
+     * segments named by {@code EXT-X-MAP}.
+     */
+    private static List<String> getUris(byte[] playlist) {
+        List<String> uris = new ArrayList<>();
+        for (String line : new String(playlist, StandardCharsets.UTF_8).split("\n")) {
+            String trimmed = line.trim();
+            String map = HlsPackaging.getMapUri(trimmed);
+            if (map != null) {
+                uris.add(map);
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                uris.add(trimmed);
+            }
+        }
+        return uris;
+    }
+
+    private static String resolve(String base, String uri) {
+        return URI.create(base).resolve(uri).toString();
+    }
+
+    /**
+     * Prints the time jobs spent in each processing stage, the cache tier
+     * statistics and, in process, the requests that reached the stub.
+     */
+    private void printServerSide() throws Exception {
+        String metrics = get(baseUrl + "/actuator/prometheus");
+        if (metrics != null) {
+            Map<String, double[]> stages = new TreeMap<>();
+            for (String line : metrics.split("\n")) {
+                Matcher sample = STAGE_SAMPLE.matcher(line);
+                if (!sample.find()) {
+                    continue;
+                }
+                Matcher stage = STAGE_LABEL.matcher(sample.group(2));
+                if (stage.find()) {
+                    double[] totals = stages.computeIfAbsent(stage.group(1), key -> new double[2]);
+                    totals[sample.group(1).equals("sum") ? 0 : 1] += Double.parseDouble(sample.group(3));
+                }
+            }
+            if (!stages.isEmpty()) {
+                out.printf(Locale.ROOT, "%n== Processing stages ==%n%-16s %8s %10s %10s%n",
+                        "stage", "count", "total s", "mean s");
+                for (Map.Entry<String, double[]> entry : stages.entrySet()) {
+                    double[] totals = entry.getValue();
+                    out.printf(Locale.ROOT, "%-16s %8.0f %10.1f %10.2f%n", entry.getKey(), totals[1], totals[0],
+                            totals[1] > 0 ? totals[0] / totals[1] : 0);
+                }
+            }
+        }
+        String cache = get(baseUrl + "/api/cache/stats");
+        if (cache != null) {
+            out.printf(Locale.ROOT, "%n== Cache ==%n%s%n", cache);
+        }
+        if (server != null) {
+            S3Stub stub = server.getStub();
+            out.printf(Locale.ROOT, "%n== Object storage stub ==%n%d requests, %.1f MB sent, %d objects%n",
+                    stub.getRequestCount(), stub.getBytesSent() / (1024.0 * 1024), stub.getObjectCount());
+        }
+    }
+
+    private String get(String url) throws InterruptedException {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private long longOption(String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    private static Instant instant(JsonNode job, String field) {
+        if (job == null || !job.hasNonNull(field)) {
+            return null;
+        }
+        return Instant.parse(job.get(field).asText());
+    }
+
+    private static double between(Instant from, Instant to) {
+        return from != null && to != null ? Duration.between(from, to).toMillis() / 1000.0 : 0;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.abrstreaming.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playlist and segment requests through the whole playback path: Tomcat,
+ * {@code VideoController}, the memory and disk cache tiers and the Minio
+ * client, against an {@link S3Stub} seeded with one video. Each operation
+ * is one HTTP request whose body is read to the end.
+ *
+ * <p>Parameters:
+ * <ul>
+ *   <li>{@code deliveryMode}: {@code proxy}, or {@code presigned-playlist},
+ *   where variant playlists are rewritten with signed segment URLs</li>
+ *   <li>{@code cache}: {@code on} for the configured tiers, {@code off}
+ *   for no memory or disk tier and no prefetch, so every request reads Minio</li>
+ *   <li>{@code stubLatencyMillis}: time to first byte of every Minio request</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-XX:MaxDirectMemorySize=1g"})
+@Threads(8)
+public class PlaybackBenchmark {
+
+    private static final String VIDEO_ID = "benchmark-video";
+    private static final String QUALITY = "720p";
+    private static final int SEGMENTS = 12;
+    private static final int RANGE_BYTES = 256 * 1024;
+
+    @Param({"proxy", "presigned-playlist"})
+    public String deliveryMode;
+
+    @Param({"on", "off"})
+    public String cache;
+
+    @Param({"0", "20"})
+    public long stubLatencyMillis;
+
+    private BenchmarkServer server;
+    private HttpClient client;
+    private String videoUrl;
+
+    /**
+     * Segment each benchmark thread requests next, so threads walk the
+     * rendition like sequential viewers.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String nextSegment() {
+            int segment = next;
+            next = (next + 1) % SEGMENTS;
+            return SyntheticMedia.segmentName(segment, ".ts");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("delivery.mode", deliveryMode);
+        if (cache.equals("off")) {
+            properties.put("cache.memory.max-bytes", "0");
+            properties.put("cache.disk.max-bytes", "0");
+            properties.put("prefetch.enabled", "false");
+        }
+        server = BenchmarkServer.start(Path.of("target", "benchmark", "playback"), stubLatencyMillis, 0, properties);
+        SyntheticMedia.seedVideo(server.getStub(), BenchmarkServer.BUCKET, VIDEO_ID, SEGMENTS);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        videoUrl = server.getBaseUrl() + "/api/videos/" + VIDEO_ID;
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.close();
+    }
+
+    @Benchmark
+    public long masterPlaylist() throws Exception {
+        return get(videoUrl + "/master.m3u8", null);
+    }
+
+    @Benchmark
+    public long variantPlaylist() throws Exception {
+        return get(videoUrl + "/hls/" + QUALITY + "/playlist.m3u8", null);
+    }
+
+    @Benchmark
+    public long segment(Cursor cursor) throws Exception {
+        return get(videoUrl + "/hls/" + QUALITY + "/" + cursor.nextSegment(), null);
+    }
+
+    @Benchmark
+    public long segmentRange(Cursor cursor) throws Exception {
+        return get(videoUrl + "/hls/" + QUALITY + "/" + cursor.nextSegment(), "bytes=0-" + (RANGE_BYTES - 1));
+    }
+
+    private long get(String url, String range) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (range != null) {
+            request.header("Range", range);
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200 && response.statusCode() != 206) {
+            throw new IllegalStateException("GET " + url + " answered " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
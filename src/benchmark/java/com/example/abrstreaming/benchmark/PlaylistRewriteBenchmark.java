@@ -0,0 +1,74 @@
+package com.example.abrstreaming.benchmark;
+
+import com.example.abrstreaming.service.CachedObject;
+import com.example.abrstreaming.service.SegmentUrlSigner;
+import io.minio.MinioClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playlist generation per request in the {@code presigned-playlist}
+ * delivery mode: {@link SegmentUrlSigner#rewritePlaylist} signs every
+ * segment URI of a variant playlist, which costs one HMAC chain per segment
+ * on every playlist request. No network is involved; the signing client
+ * has a fixed region.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PlaylistRewriteBenchmark {
+
+    /** Segments in the playlist: a 10-minute, 2-hour and 12-hour VOD at 10 s. */
+    @Param({"60", "720", "4320"})
+    public int segments;
+
+    @Param({"ts", "fmp4"})
+    public String segmentFormat;
+
+    private SegmentUrlSigner signer;
+    private CachedObject playlist;
+
+    @Setup
+    public void setUp() {
+        signer = new SegmentUrlSigner();
+        ReflectionTestUtils.setField(signer, "presignMinioClient", MinioClient.builder()
+                .endpoint("http://127.0.0.1:9000")
+                .region("us-east-1")
+                .credentials("minio_access_key", "minio_secret_key")
+                .build());
+        ReflectionTestUtils.setField(signer, "bucket", BenchmarkServer.BUCKET);
+        ReflectionTestUtils.setField(signer, "mode", SegmentUrlSigner.MODE_PRESIGNED_PLAYLIST);
+        ReflectionTestUtils.setField(signer, "expirySeconds", 3600);
+
+        String content = SyntheticMedia.variantPlaylist(segments, segmentFormat.equals("fmp4") ? ".m4s" : ".ts");
+        if (segmentFormat.equals("fmp4")) {
+            content = content.replace("#EXT-X-VERSION:3\n", "#EXT-X-VERSION:7\n#EXT-X-MAP:URI=\"init.mp4\"\n");
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        playlist = new CachedObject(buffer, "etag", System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public byte[] rewritePlaylist() {
+        return signer.rewritePlaylist("benchmark-video/hls/720p/playlist.m3u8", playlist);
+    }
+}
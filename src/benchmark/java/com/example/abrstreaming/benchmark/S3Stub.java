@@ -0,0 +1,356 @@
+package com.example.abrstreaming.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for Minio: the part of the S3 REST API this
+ * application uses (bucket location, PUT/GET/HEAD/DELETE of objects, ranged
+ * GETs and multipart uploads), with objects held in memory. Requests are
+ * not authenticated and buckets need not exist.
+ *
+ * <p>Every request waits {@code firstByteMillis} before it is answered and
+ * response bodies are paced to {@code bytesPerSecond} (0 = unlimited), so
+ * benchmarks can model object storage across a network rather than loopback.
+ */
+public class S3Stub implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3Stub.class);
+    private static final String S3_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long firstByteMillis;
+    private volatile long bytesPerSecond;
+
+    private static class StoredObject {
+        final byte[] content;
+        final String etag;
+        final long lastModified;
+
+        StoredObject(byte[] content, String etag) {
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = System.currentTimeMillis();
+        }
+    }
+
+    private S3Stub(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a stub on an ephemeral loopback port.
+     */
+    public static S3Stub start(long firstByteMillis, long bytesPerSecond) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "s3-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        S3Stub stub = new S3Stub(server, executor);
+        stub.setLatency(firstByteMillis, bytesPerSecond);
+        server.createContext("/", stub::handle);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("S3 stub listening on {}", stub.getEndpoint());
+        return stub;
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setLatency(long firstByteMillis, long bytesPerSecond) {
+        this.firstByteMillis = firstByteMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Stores an object directly, as if it had been uploaded.
+     */
+    public void putObject(String bucket, String objectName, byte[] content) {
+        objects.put(bucket + "/" + objectName, new StoredObject(content, md5(content)));
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            sleep(firstByteMillis);
+            route(exchange, body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.warn("S3 stub failed on {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, "InternalError", exchange.getRequestURI().getPath());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, byte[] body) throws IOException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath().substring(1);
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int slash = path.indexOf('/');
+        String bucket = slash < 0 ? path : path.substring(0, slash);
+        String key = slash < 0 ? "" : path.substring(slash + 1);
+
+        if (key.isEmpty()) {
+            if (method.equals("GET") && query.containsKey("location")) {
+                sendXml(exchange, 200,
+                        "<LocationConstraint xmlns=\"" + S3_NAMESPACE + "\">us-east-1</LocationConstraint>");
+            } else if (method.equals("HEAD") || method.equals("PUT")) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                sendError(exchange, 501, "NotImplemented", path);
+            }
+            return;
+        }
+        String name = bucket + "/" + key;
+        String uploadId = query.get("uploadId");
+        switch (method) {
+            case "POST":
+                if (query.containsKey("uploads")) {
+                    initiateUpload(exchange, bucket, key);
+                } else if (uploadId != null) {
+                    completeUpload(exchange, bucket, key, uploadId);
+                } else {
+                    sendError(exchange, 501, "NotImplemented", path);
+                }
+                break;
+            case "PUT":
+                if (uploadId != null) {
+                    uploadPart(exchange, uploadId, Integer.parseInt(query.get("partNumber")), body);
+                } else {
+                    StoredObject object = new StoredObject(body, md5(body));
+                    objects.put(name, object);
+                    exchange.getResponseHeaders().set("ETag", "\"" + object.etag + "\"");
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                break;
+            case "DELETE":
+                if (uploadId != null) {
+                    uploads.remove(uploadId);
+                } else {
+                    objects.remove(name);
+                }
+                exchange.sendResponseHeaders(204, -1);
+                break;
+            case "GET":
+            case "HEAD":
+                read(exchange, name, method.equals("HEAD"));
+                break;
+            default:
+                sendError(exchange, 405, "MethodNotAllowed", path);
+        }
+    }
+
+    private void initiateUpload(HttpExchange exchange, String bucket, String key) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        sendXml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + S3_NAMESPACE + "\">"
+                + "<Bucket>" + escape(bucket) + "</Bucket><Key>" + escape(key) + "</Key>"
+                + "<UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+    }
+
+    private void uploadPart(HttpExchange exchange, String uploadId, int partNumber, byte[] content)
+            throws IOException {
+        SortedMap<Integer, byte[]> parts = uploads.get(uploadId);
+        if (parts == null) {
+            sendError(exchange, 404, "NoSuchUpload", uploadId);
+            return;
+        }
+        parts.put(partNumber, content);
+        exchange.getResponseHeaders().set("ETag", "\"" + md5(content) + "\"");
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    /**
+     * Joins all uploaded parts in part number order; the part list in the
+     * request is not checked against them.
+     */
+    private void completeUpload(HttpExchange exchange, String bucket, String key, String uploadId) throws IOException {
+        SortedMap<Integer, byte[]> parts = uploads.remove(uploadId);
+        if (parts == null) {
+            sendError(exchange, 404, "NoSuchUpload", uploadId);
+            return;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] part : parts.values()) {
+            content.write(part);
+        }
+        String etag = md5(content.toByteArray()) + "-" + parts.size();
+        objects.put(bucket + "/" + key, new StoredObject(content.toByteArray(), etag));
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + S3_NAMESPACE + "\">"
+                + "<Location>" + getEndpoint() + "/" + escape(bucket + "/" + key) + "</Location>"
+                + "<Bucket>" + escape(bucket) + "</Bucket><Key>" + escape(key) + "</Key>"
+                + "<ETag>\"" + etag + "\"</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void read(HttpExchange exchange, String name, boolean head) throws IOException, InterruptedException {
+        StoredObject object = objects.get(name);
+        if (object == null) {
+            sendError(exchange, 404, "NoSuchKey", name);
+            return;
+        }
+        long size = object.content.length;
+        long start = 0;
+        long end = size - 1;
+        int status = 200;
+        Headers headers = exchange.getResponseHeaders();
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            if (bounds[0].isEmpty()) {
+                start = Math.max(0, size - Long.parseLong(bounds[1]));
+            } else {
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+            }
+            if (start > end) {
+                headers.set("Content-Range", "bytes */" + size);
+                sendError(exchange, 416, "InvalidRange", name);
+                return;
+            }
+            status = 206;
+            headers.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        long length = end - start + 1;
+        headers.set("ETag", "\"" + object.etag + "\"");
+        headers.set("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(object.lastModified)));
+        headers.set("Content-Type", "application/octet-stream");
+        headers.set("Accept-Ranges", "bytes");
+        if (head) {
+            headers.set("Content-Length", String.valueOf(size));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        writePaced(exchange.getResponseBody(), object.content, (int) start, (int) length);
+    }
+
+    private void writePaced(OutputStream out, byte[] content, int offset, int length)
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        int written = 0;
+        while (written < length) {
+            int chunk = Math.min(CHUNK_SIZE, length - written);
+            out.write(content, offset + written, chunk);
+            written += chunk;
+            bytesSent.addAndGet(chunk);
+            long rate = bytesPerSecond;
+            if (rate > 0) {
+                long dueMillis = written * 1000L / rate;
+                sleep(dueMillis - (System.nanoTime() - started) / 1_000_000);
+            }
+        }
+    }
+
+    private void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String resource) throws IOException {
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + code + "</Message>"
+                + "<Resource>" + escape(resource) + "</Resource>"
+                + "<RequestId>stub</RequestId><HostId>stub</HostId></Error>");
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            query.put(name, value);
+        }
+        return query;
+    }
+
+    private static String md5(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.abrstreaming.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test media for benchmarks, made without any real footage:
+ * <ul>
+ *   <li>sources rendered by ffmpeg from the {@code testsrc2} and
+ *   {@code sine} lavfi generators, for the ingest path</li>
+ *   <li>renditions already packaged as HLS, with random bytes for segments,
+ *   for the playback path when ffmpeg is not installed or encoding is not
+ *   what is being measured</li>
+ * </ul>
+ */
+public final class SyntheticMedia {
+
+    public static final int SEGMENT_SECONDS = 10;
+    public static final List<String> QUALITIES = List.of("360p", "720p", "1080p");
+
+    private SyntheticMedia() {
+    }
+
+    public static boolean isFfmpegAvailable() {
+        try {
+            Process process = new ProcessBuilder("ffmpeg", "-version").redirectErrorStream(true).start();
+            process.getInputStream().transferTo(OutputStream.nullOutputStream());
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Renders an H.264/AAC MP4 of {@code seconds} into {@code directory}, or
+     * returns the one rendered by an earlier run. Sources with a different
+     * {@code index} differ in their tone, so they are distinct uploads and
+     * are not deduplicated by content.
+     */
+    public static Path generateSource(Path directory, int width, int height, int seconds, int index)
+            throws IOException, InterruptedException {
+        Path source = directory.resolve(String.format(Locale.ROOT, "source-%dx%d-%ds-%d.mp4",
+                width, height, seconds, index));
+        if (Files.exists(source)) {
+            return source;
+        }
+        Files.createDirectories(directory);
+        Path partial = directory.resolve(source.getFileName() + ".part.mp4");
+        List<String> command = Arrays.asList("ffmpeg", "-y", "-hide_banner", "-loglevel", "error",
+                "-f", "lavfi", "-i", String.format(Locale.ROOT, "testsrc2=size=%dx%d:rate=30:duration=%d",
+                        width, height, seconds),
+                "-f", "lavfi", "-i", String.format(Locale.ROOT, "sine=frequency=%d:sample_rate=48000:duration=%d",
+                        220 + 10 * index, seconds),
+                "-c:v", "libx264", "-preset", "veryfast", "-pix_fmt", "yuv420p", "-g", "60",
+                "-c:a", "aac", "-b:a", "128k", "-shortest", partial.toString());
+        Path log = directory.resolve(source.getFileName() + ".log");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        if (!process.waitFor(10, TimeUnit.MINUTES) || process.exitValue() != 0) {
+            process.destroyForcibly();
+            throw new IOException("ffmpeg failed to generate " + source + ": " + Files.readString(log));
+        }
+        Files.delete(log);
+        Files.move(partial, source);
+        return source;
+    }
+
+    /**
+     * Stores a finished video in {@code stub} the way the processing
+     * pipeline leaves it: a master playlist and, per quality, a VOD playlist
+     * of {@code segments} MPEG-TS segments of {@link #SEGMENT_SECONDS}.
+     */
+    public static void seedVideo(S3Stub stub, String bucket, String videoId, int segments) {
+        Random random = new Random(videoId.hashCode());
+        StringBuilder master = new StringBuilder("#EXTM3U\n");
+        for (String quality : QUALITIES) {
+            int bitrate = getBitrate(quality);
+            master.append(String.format(Locale.ROOT, "#EXT-X-STREAM-INF:BANDWIDTH=%d,AVERAGE-BANDWIDTH=%d,"
+                    + "RESOLUTION=%s,CODECS=\"avc1.64001f,mp4a.40.2\"\n",
+                    bitrate * 11 / 10, bitrate, getResolution(quality)));
+            master.append("hls/").append(quality).append("/playlist.m3u8\n");
+
+            String prefix = videoId + "/hls/" + quality + "/";
+            stub.putObject(bucket, prefix + "playlist.m3u8",
+                    variantPlaylist(segments, ".ts").getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < segments; i++) {
+                byte[] segment = new byte[bitrate / 8 * SEGMENT_SECONDS];
+                random.nextBytes(segment);
+                stub.putObject(bucket, prefix + segmentName(i, ".ts"), segment);
+            }
+        }
+        stub.putObject(bucket, videoId + "/master.m3u8", master.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns a VOD media playlist of {@code segments} segments named by
+     * {@link #segmentName}.
+     */
+    public static String variantPlaylist(int segments, String extension) {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:").append(SEGMENT_SECONDS).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n");
+        for (int i = 0; i < segments; i++) {
+            playlist.append("#EXTINF:").append(SEGMENT_SECONDS).append(".000000,\n")
+                    .append(segmentName(i, extension)).append('\n');
+        }
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    /**
+     * Returns the name of segment {@code index} as the processing pipelines
+     * publish it: {@code playlist<index>} plus the extension.
+     */
+    public static String segmentName(int index, String extension) {
+        return "playlist" + index + extension;
+    }
+
+    /**
+     * Returns the bit rate, in bits per second, of the seeded segments of a
+     * quality.
+     */
+    public static int getBitrate(String quality) {
+        switch (quality) {
+            case "360p":
+                return 800_000;
+            case "720p":
+                return 2_800_000;
+            case "1080p":
+                return 5_000_000;
+            default:
+                throw new IllegalArgumentException("Unknown quality: " + quality);
+        }
+    }
+
+    private static String getResolution(String quality) {
+        int height = Integer.parseInt(quality.substring(0, quality.length() - 1));
+        return (height * 16 / 9 + 1) / 2 * 2 + "x" + height;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.abrstreaming.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class DeliveryConfig {
+
+    @Value("${prefetch.max-concurrent:8}")
+    private int prefetchConcurrency;
+
+    @Bean
+    public ThreadPoolTaskExecutor prefetchExecutor() {
+        // Submissions are already bounded by the prefetch budget, so no queue
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(prefetchConcurrency);
+        executor.setMaxPoolSize(prefetchConcurrency);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("prefetch-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -1,9 +1,18 @@
 package com.example.abrstreaming.config;
 
+import com.example.abrstreaming.service.MinioMultipartClient;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
+import io.minio.http.HttpUtils;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class MinioConfig {
@@ -17,12 +26,85 @@ public class MinioConfig {
     @Value("${minio.secretKey}")
     private String secretKey;
 
+    @Value("${minio.region:us-east-1}")
+    private String region;
+
+    @Value("${minio.public-endpoint:${minio.endpoint}}")
+    private String publicEndpoint;
+
+    @Value("${minio.http.max-idle-connections:64}")
+    private int maxIdleConnections;
+
+    @Value("${minio.http.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Value("${minio.http.max-requests:128}")
+    private int maxRequests;
+
+    @Value("${minio.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${minio.http.write-timeout-ms:60000}")
+    private long writeTimeoutMs;
+
+    @Value("${minio.http.read-timeout-ms:60000}")
+    private long readTimeoutMs;
+
+    /**
+     * HTTP client shared by the clients that talk to Minio. The pool keeps
+     * enough idle keep-alive connections for every concurrent upload and
+     * playback fetch, so bursts of small segment PUTs and GETs do not each
+     * pay for a new TCP connection; the default pool keeps only 5. Timeouts
+     * are short enough that a stuck request fails and is retried instead of
+     * holding a worker for the 5-minute SDK default.
+     */
+    @Bean
+    public OkHttpClient minioHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        // Limits asynchronous calls only; Minio is a single host
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+        return HttpUtils.newDefaultHttpClient(connectTimeoutMs, writeTimeoutMs, readTimeoutMs)
+                .newBuilder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
     @Bean
-    public MinioClient minioClient() {
+    @Primary
+    public MinioClient minioClient(OkHttpClient minioHttpClient) {
         return MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
+                .httpClient(minioHttpClient)
+                .build();
+    }
+
+    /**
+     * Client used only to sign URLs handed to players. It points at the
+     * endpoint clients can reach (Minio itself or a CDN in front of it) and
+     * has a fixed region, so signing never makes a network call.
+     */
+    @Bean
+    public MinioClient presignMinioClient() {
+        return MinioClient.builder()
+                .endpoint(publicEndpoint)
+                .region(region)
+                .credentials(accessKey, secretKey)
                 .build();
     }
-}
 
+    /**
+     * Client for multipart uploads, used for large files and the resumable
+     * ingest API.
+     */
+    @Bean
+    public MinioMultipartClient minioMultipartClient(OkHttpClient minioHttpClient) {
+        return new MinioMultipartClient(MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .httpClient(minioHttpClient)
+                .build());
+    }
+}
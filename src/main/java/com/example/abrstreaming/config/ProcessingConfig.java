@@ -0,0 +1,93 @@
+package com.example.abrstreaming.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ProcessingConfig {
+
+    @Value("${processing.workers:2}")
+    private int workers;
+
+    @Value("${processing.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${processing.rendition-threads:8}")
+    private int renditionThreads;
+
+    @Value("${processing.upload-threads:4}")
+    private int uploadThreads;
+
+    @Value("${processing.segment-upload-threads:8}")
+    private int segmentUploadThreads;
+
+    @Value("${processing.chunk-workers:4}")
+    private int chunkWorkers;
+
+    @Value("${processing.multipart-upload-threads:8}")
+    private int multipartUploadThreads;
+
+    @Bean
+    public ThreadPoolTaskExecutor videoProcessingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("video-worker-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor renditionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(renditionThreads);
+        executor.setMaxPoolSize(renditionThreads);
+        executor.setThreadNamePrefix("rendition-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor uploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(uploadThreads);
+        executor.setMaxPoolSize(uploadThreads);
+        executor.setThreadNamePrefix("upload-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor segmentUploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(segmentUploadThreads);
+        executor.setMaxPoolSize(segmentUploadThreads);
+        executor.setThreadNamePrefix("segment-upload-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor chunkEncodeExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(chunkWorkers);
+        executor.setMaxPoolSize(chunkWorkers);
+        executor.setThreadNamePrefix("chunk-encoder-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor multipartUploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(multipartUploadThreads);
+        executor.setMaxPoolSize(multipartUploadThreads);
+        executor.setThreadNamePrefix("multipart-upload-");
+        executor.initialize();
+        return executor;
+    }
+}
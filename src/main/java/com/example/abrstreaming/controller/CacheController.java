@@ -0,0 +1,36 @@
+package com.example.abrstreaming.controller;
+
+import com.example.abrstreaming.service.DiskSegmentCache;
+import com.example.abrstreaming.service.SegmentCache;
+import com.example.abrstreaming.service.SegmentPrefetcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/cache")
+public class CacheController {
+
+    @Autowired
+    private SegmentCache segmentCache;
+
+    @Autowired
+    private DiskSegmentCache diskSegmentCache;
+
+    @Autowired
+    private SegmentPrefetcher segmentPrefetcher;
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Map<String, Long>>> getStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        stats.put("memory", segmentCache.getStats());
+        stats.put("disk", diskSegmentCache.getStats());
+        stats.put("prefetch", segmentPrefetcher.getStats());
+        return ResponseEntity.ok(stats);
+    }
+}
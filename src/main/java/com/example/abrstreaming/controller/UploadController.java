@@ -0,0 +1,126 @@
+package com.example.abrstreaming.controller;
+
+import com.example.abrstreaming.service.JobPriority;
+import com.example.abrstreaming.service.UploadService;
+import com.example.abrstreaming.service.UploadSession;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Resumable upload API. The request body of each part is read straight from
+ * the servlet input stream, so nothing is buffered by multipart parsing:
+ *
+ * <pre>
+ * POST   /api/uploads?filename=movie.mp4&amp;size=N     -> 201 session (uploadId, partSize)
+ *        [&amp;priority=high|normal|low, X-Tenant-Id]   -> 429 while the tenant's queue is full
+ * PUT    /api/uploads/{uploadId}/parts/{n}          -> 200 session, n = receivedParts + 1
+ * GET    /api/uploads/{uploadId}                    -> 200 session, to resume after a failure
+ * POST   /api/uploads/{uploadId}/complete[?sha256=] -> 202 videoId
+ * DELETE /api/uploads/{uploadId}                    -> 204
+ * </pre>
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
+    @Autowired
+    private UploadService uploadService;
+
+    @Value("${ingest.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    @PostMapping
+    public ResponseEntity<?> createUpload(@RequestParam String filename,
+                                          @RequestParam(defaultValue = "0") long size,
+                                          @RequestParam(required = false) String priority,
+                                          @RequestHeader(value = "X-Tenant-Id", required = false) String tenant) {
+        logger.info("Received resumable upload request for file: {}, size: {} bytes", filename, size);
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(uploadService.create(filename, size, tenant, JobPriority.parse(priority)));
+        } catch (TaskRejectedException e) {
+            logger.warn("Rejected upload of {}: {}", filename, e.getMessage());
+            return tooManyRequests(e);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Failed to create upload for file: {}. Error: {}", filename, e.getMessage(), e);
+            return ResponseEntity.internalServerError().body("Error creating upload: " + e.getMessage());
+        }
+    }
+
+    @PutMapping("/{uploadId}/parts/{partNumber}")
+    public ResponseEntity<?> uploadPart(@PathVariable String uploadId, @PathVariable int partNumber,
+                                        HttpServletRequest request) {
+        logger.debug("Receiving part {} of upload {}", partNumber, uploadId);
+        try {
+            return ResponseEntity.ok(uploadService.writePart(uploadId, partNumber, request.getInputStream()));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Failed to receive part {} of upload {}. Error: {}", partNumber, uploadId, e.getMessage(), e);
+            return ResponseEntity.internalServerError().body("Error receiving part: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadSession> getUpload(@PathVariable String uploadId) {
+        return uploadService.find(uploadId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<String> completeUpload(@PathVariable String uploadId,
+                                                 @RequestParam(required = false) String sha256) {
+        try {
+            String videoId = uploadService.complete(uploadId, sha256);
+            logger.info("Accepted resumable upload {} for processing. VideoId: {}", uploadId, videoId);
+            return ResponseEntity.accepted().body(videoId);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (TaskRejectedException e) {
+            logger.warn("Rejected upload {}: {}", uploadId, e.getMessage());
+            return tooManyRequests(e);
+        } catch (Exception e) {
+            logger.error("Failed to complete upload {}. Error: {}", uploadId, e.getMessage(), e);
+            return ResponseEntity.internalServerError().body("Error completing upload: " + e.getMessage());
+        }
+    }
+
+    private ResponseEntity<String> tooManyRequests(TaskRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(e.getMessage() + ", try again later");
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String uploadId) {
+        try {
+            uploadService.abort(uploadId);
+            return ResponseEntity.noContent().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
@@ -1,19 +1,50 @@
 package com.example.abrstreaming.controller;
 
+import com.example.abrstreaming.service.ByteBufferInputStream;
+import com.example.abrstreaming.service.CachedObject;
+import com.example.abrstreaming.service.DiskSegmentCache;
+import com.example.abrstreaming.service.FfmpegProgress;
+import com.example.abrstreaming.service.HlsPackaging;
+import com.example.abrstreaming.service.JobPriority;
+import com.example.abrstreaming.service.LivePlaylists;
+import com.example.abrstreaming.service.ProcessRunner;
+import com.example.abrstreaming.service.SegmentCache;
+import com.example.abrstreaming.service.SegmentPrefetcher;
+import com.example.abrstreaming.service.SegmentUrlSigner;
+import com.example.abrstreaming.service.VideoJob;
 import com.example.abrstreaming.service.VideoService;
-import io.minio.GetObjectArgs;
-import io.minio.MinioClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.StatObjectResponse;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api/videos")
@@ -21,23 +52,79 @@ public class VideoController {
 
     private static final Logger logger = LoggerFactory.getLogger(VideoController.class);
 
+    // Tier that answered a playback request, tagged on delivery metrics
+    private static final String SOURCE_MEMORY = "memory";
+    private static final String SOURCE_DISK = "disk";
+    private static final String SOURCE_MINIO = "minio";
+    private static final String SOURCE_MINIO_RANGE = "minio-range";
+    private static final String SOURCE_REDIRECT = "redirect";
+    private static final String SOURCE_LIVE = "live";
+
+    private static final long PROGRESS_STREAM_TIMEOUT_MS = 60 * 60 * 1000;
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private VideoService videoService;
 
     @Autowired
-    private MinioClient minioClient;
+    private SegmentCache segmentCache;
+
+    @Autowired
+    private DiskSegmentCache diskSegmentCache;
+
+    @Autowired
+    private SegmentPrefetcher segmentPrefetcher;
+
+    @Autowired
+    private SegmentUrlSigner segmentUrlSigner;
+
+    @Autowired
+    private ProcessRunner processRunner;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LivePlaylists livePlaylists;
+
+    @Autowired
+    private HlsPackaging hlsPackaging;
+
+    @Value("${delivery.playlist-max-age-seconds:2}")
+    private long playlistMaxAgeSeconds;
 
-    @Value("${minio.bucket}")
-    private String bucket;
+    @Value("${delivery.segment-max-age-seconds:31536000}")
+    private long segmentMaxAgeSeconds;
 
+    @Value("${ingest.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    /**
+     * Accepts a source for {@code X-Tenant-Id} (or the default tenant) at
+     * {@code priority} high, normal or low. Answers 429 with Retry-After when
+     * the tenant cannot queue another job.
+     */
     @PostMapping("/upload")
-    public ResponseEntity<String> uploadVideo(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<String> uploadVideo(@RequestParam("file") MultipartFile file,
+                                              @RequestHeader(value = "X-Tenant-Id", required = false) String tenant,
+                                              @RequestParam(required = false) String priority) {
         logger.info("Received video upload request for file: {}, size: {} bytes", 
             file.getOriginalFilename(), file.getSize());
         try {
-            String videoId = videoService.uploadAndProcess(file);
-            logger.info("Successfully processed video upload. VideoId: {}", videoId);
-            return ResponseEntity.ok(videoId);
+            String videoId = videoService.uploadAndEnqueue(file, tenant, JobPriority.parse(priority));
+            logger.info("Accepted video upload for processing. VideoId: {}", videoId);
+            return ResponseEntity.accepted().body(videoId);
+        } catch (TaskRejectedException e) {
+            logger.warn("Rejected video upload for file: {}: {}", file.getOriginalFilename(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(e.getMessage() + ", try again later");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             logger.error("Failed to process video upload for file: {}. Error: {}", 
                 file.getOriginalFilename(), e.getMessage(), e);
@@ -45,18 +132,86 @@ public class VideoController {
         }
     }
 
+    @GetMapping("/{videoId}/status")
+    public ResponseEntity<VideoJob> getStatus(@PathVariable String videoId) {
+        logger.debug("Fetching processing status for videoId: {}", videoId);
+        return videoService.getJob(videoId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/{videoId}/cancel")
+    public ResponseEntity<String> cancelProcessing(@PathVariable String videoId) {
+        logger.info("Received cancel request for videoId: {}", videoId);
+        try {
+            if (!videoService.cancel(videoId)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("Processing has already ended");
+            }
+            return ResponseEntity.accepted().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Streams ffmpeg progress of a job as server-sent events: "progress"
+     * events with frame, fps, speed, percent and ETA per running step, about
+     * once a second, and a final "status" event with the job when it ends.
+     */
+    @GetMapping(value = "/{videoId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamProgress(@PathVariable String videoId) {
+        if (videoService.getJob(videoId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(PROGRESS_STREAM_TIMEOUT_MS);
+        AtomicBoolean closed = new AtomicBoolean();
+        ProcessRunner.Listener listener = new ProcessRunner.Listener() {
+            @Override
+            public void onProgress(FfmpegProgress progress) {
+                try {
+                    emitter.send(SseEmitter.event().name("progress").data(progress));
+                } catch (IOException e) {
+                    // Client went away; the runner unsubscribes failed listeners
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void onJobFinished() {
+                if (closed.compareAndSet(false, true)) {
+                    try {
+                        emitter.send(SseEmitter.event().name("status").data(videoService.getJob(videoId).orElse(null)));
+                        emitter.complete();
+                    } catch (IOException e) {
+                        emitter.completeWithError(e);
+                    }
+                }
+            }
+        };
+        emitter.onCompletion(() -> processRunner.unsubscribe(videoId, listener));
+        emitter.onTimeout(() -> processRunner.unsubscribe(videoId, listener));
+        emitter.onError(e -> processRunner.unsubscribe(videoId, listener));
+        processRunner.subscribe(videoId, listener);
+
+        for (FfmpegProgress progress : processRunner.getProgress(videoId)) {
+            listener.onProgress(progress);
+        }
+        // A job that ended before the subscription was registered gets no
+        // end notification, so check after subscribing
+        if (videoService.getJob(videoId).map(job -> job.getStatus().isTerminal()).orElse(true)) {
+            processRunner.unsubscribe(videoId, listener);
+            listener.onJobFinished();
+        }
+        return ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, "no-cache").body(emitter);
+    }
+
     @GetMapping("/{videoId}/master.m3u8")
-    public ResponseEntity<InputStreamResource> getMasterPlaylist(@PathVariable String videoId) {
+    public ResponseEntity<Resource> getMasterPlaylist(@PathVariable String videoId, HttpServletRequest request) {
         logger.debug("Fetching master playlist for videoId: {}", videoId);
         try {
-            InputStream stream = minioClient.getObject(GetObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(videoId + "/master.m3u8")
-                    .build());
+            ResponseEntity<Resource> response = serve(videoId + "/master.m3u8", request);
             logger.debug("Successfully retrieved master playlist for videoId: {}", videoId);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"))
-                    .body(new InputStreamResource(stream));
+            return response;
         } catch (Exception e) {
             logger.error("Failed to retrieve master playlist for videoId: {}. Error: {}", 
                 videoId, e.getMessage(), e);
@@ -65,22 +220,18 @@ public class VideoController {
     }
 
     @GetMapping("/{videoId}/hls/{quality}/{filename}")
-    public ResponseEntity<InputStreamResource> getHlsChunk(
+    public ResponseEntity<Resource> getHlsChunk(
             @PathVariable String videoId,
             @PathVariable String quality,
-            @PathVariable String filename) {
+            @PathVariable String filename,
+            HttpServletRequest request) {
         logger.debug("Fetching HLS chunk - videoId: {}, quality: {}, filename: {}", 
             videoId, quality, filename);
         try {
-            InputStream stream = minioClient.getObject(GetObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(videoId + "/hls/" + quality + "/" + filename)
-                    .build());
+            ResponseEntity<Resource> response = serve(videoId + "/hls/" + quality + "/" + filename, request);
             logger.debug("Successfully retrieved HLS chunk - videoId: {}, quality: {}, filename: {}", 
                 videoId, quality, filename);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"))
-                    .body(new InputStreamResource(stream));
+            return response;
         } catch (Exception e) {
             logger.error("Failed to retrieve HLS chunk - videoId: {}, quality: {}, filename: {}. Error: {}", 
                 videoId, quality, filename, e.getMessage(), e);
@@ -88,18 +239,41 @@ public class VideoController {
         }
     }
 
+    /**
+     * Blocking playlist reload: holds the request until the playlist
+     * contains part {@code _HLS_part} of media segment {@code _HLS_msn}
+     * (or all of it without {@code _HLS_part}), see {@link #holdPlaylist}.
+     */
+    @GetMapping(value = "/{videoId}/hls/{quality}/{filename}", params = "_HLS_msn")
+    public CompletableFuture<ResponseEntity<Resource>> getHlsPlaylistBlocking(
+            @PathVariable String videoId,
+            @PathVariable String quality,
+            @PathVariable String filename,
+            @RequestParam("_HLS_msn") long msn,
+            @RequestParam(value = "_HLS_part", required = false) Integer part,
+            HttpServletRequest request) {
+        if (!isPlaylist(filename)) {
+            return CompletableFuture.completedFuture(getHlsChunk(videoId, quality, filename, request));
+        }
+        return holdPlaylist(videoId + "/hls/" + quality + "/" + filename, msn, part, request);
+    }
+
+    @GetMapping(value = "/{videoId}/original/playlist.m3u8", params = "_HLS_msn")
+    public CompletableFuture<ResponseEntity<Resource>> getOriginalPlaylistBlocking(
+            @PathVariable String videoId,
+            @RequestParam("_HLS_msn") long msn,
+            @RequestParam(value = "_HLS_part", required = false) Integer part,
+            HttpServletRequest request) {
+        return holdPlaylist(videoId + "/hls/original/playlist.m3u8", msn, part, request);
+    }
+
     @GetMapping("/{videoId}/original/playlist.m3u8")
-    public ResponseEntity<InputStreamResource> getOriginalPlaylist(@PathVariable String videoId) {
+    public ResponseEntity<Resource> getOriginalPlaylist(@PathVariable String videoId, HttpServletRequest request) {
         logger.debug("Fetching original quality playlist for videoId: {}", videoId);
         try {
-            InputStream stream = minioClient.getObject(GetObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(videoId + "/hls/original/playlist.m3u8")
-                    .build());
+            ResponseEntity<Resource> response = serve(videoId + "/hls/original/playlist.m3u8", request);
             logger.debug("Successfully retrieved original quality playlist for videoId: {}", videoId);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"))
-                    .body(new InputStreamResource(stream));
+            return response;
         } catch (Exception e) {
             logger.error("Failed to retrieve original quality playlist for videoId: {}. Error: {}", 
                 videoId, e.getMessage(), e);
@@ -108,25 +282,278 @@ public class VideoController {
     }
 
     @GetMapping("/{videoId}/original/{filename}")
-    public ResponseEntity<InputStreamResource> getOriginalSegment(
+    public ResponseEntity<Resource> getOriginalSegment(
             @PathVariable String videoId,
-            @PathVariable String filename) {
+            @PathVariable String filename,
+            HttpServletRequest request) {
         logger.debug("Fetching original quality segment - videoId: {}, filename: {}", videoId, filename);
         try {
-            InputStream stream = minioClient.getObject(GetObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(videoId + "/hls/original/" + filename)
-                    .build());
+            ResponseEntity<Resource> response = serve(videoId + "/hls/original/" + filename, request);
             logger.debug("Successfully retrieved original quality segment - videoId: {}, filename: {}", 
                 videoId, filename);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("video/MP2T"))
-                    .body(new InputStreamResource(stream));
+            return response;
         } catch (Exception e) {
             logger.error("Failed to retrieve original quality segment - videoId: {}, filename: {}. Error: {}", 
                 videoId, filename, e.getMessage(), e);
             return ResponseEntity.notFound().build();
         }
     }
-}
 
+    /**
+     * Answers a blocking playlist reload without holding a thread: the
+     * response is written when {@link LivePlaylists} publishes a playlist
+     * that satisfies it, straight from that in-memory snapshot. Requests
+     * more than two segments past the live edge are rejected, and requests
+     * not satisfied within three target durations get 503. Playlists that
+     * are not live on this node are served as usual at once.
+     */
+    private CompletableFuture<ResponseEntity<Resource>> holdPlaylist(String objectName, long msn, Integer part,
+                                                                     HttpServletRequest request) {
+        long nextSegment = livePlaylists.getNextSegment(objectName);
+        if (nextSegment >= 0 && msn > nextSegment + 1) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        long timeoutMillis = 3000L * hlsPackaging.getTargetDurationSeconds();
+        return livePlaylists.await(objectName, msn, part == null ? -1 : part)
+                .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .<ResponseEntity<Resource>>handle((snapshot, error) -> {
+                    if (error != null) {
+                        if (error instanceof TimeoutException) {
+                            logger.debug("Blocking reload of {} for msn {} part {} timed out", objectName, msn, part);
+                            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+                        }
+                        return ResponseEntity.notFound().build();
+                    }
+                    try {
+                        if (snapshot != null) {
+                            return serveObject(objectName, SOURCE_LIVE, snapshot.getPlaylist(), request);
+                        }
+                        return serve(objectName, request);
+                    } catch (Exception e) {
+                        logger.error("Failed to retrieve playlist {}. Error: {}", objectName, e.getMessage(), e);
+                        return ResponseEntity.notFound().build();
+                    }
+                });
+    }
+
+    /**
+     * Writes the body of a response once validators and the requested range
+     * have been resolved.
+     */
+    private interface Body {
+        ResponseEntity<Resource> write(ResponseEntity.BodyBuilder builder, long offset, long length)
+                throws IOException;
+    }
+
+    /**
+     * Serves an object from the first tier that has it: memory, local disk
+     * (segments only), then Minio. Range requests that miss every tier are
+     * answered with a ranged Minio read instead of fetching the whole object,
+     * and so is every request for a single-file rendition, which is never
+     * loaded into memory as a whole.
+     * Segment requests also trigger prefetching of the segments likely to be
+     * requested next. In the pre-signed delivery modes segment bytes bypass
+     * the application entirely, see {@link SegmentUrlSigner}.
+     */
+    private ResponseEntity<Resource> serve(String objectName, HttpServletRequest request) throws IOException {
+        boolean playlist = isPlaylist(objectName);
+        if (!playlist && segmentUrlSigner.isRedirect()) {
+            recordDelivery(objectName, SOURCE_REDIRECT, 0);
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(URI.create(segmentUrlSigner.sign(objectName)))
+                    .build();
+        }
+        if (!playlist) {
+            segmentPrefetcher.onSegmentRequested(objectName, request.getRemoteAddr());
+        }
+
+        CachedObject cached = segmentCache.getIfPresent(objectName);
+        if (cached == null && !playlist) {
+            DiskSegmentCache.Entry entry = diskSegmentCache.find(objectName);
+            if (entry != null) {
+                return respond(objectName, SOURCE_DISK, entry.getEtag(), entry.getLastModified(), entry.getSize(),
+                        request, (builder, offset, length) ->
+                                serveFile(builder, entry.getFile(), offset, length, request));
+            }
+            if (request.getHeader(HttpHeaders.RANGE) != null || HlsPackaging.isSingleFileObject(objectName)) {
+                StatObjectResponse stat = segmentCache.stat(objectName);
+                return respond(objectName, SOURCE_MINIO_RANGE, stat.etag(),
+                        stat.lastModified().toInstant().toEpochMilli(), stat.size(), request, (builder, offset, length) -> builder.contentLength(length)
+                                .body(new InputStreamResource(segmentCache.openRange(objectName, offset, length))));
+            }
+        }
+        CachedObject object = cached != null ? cached : segmentCache.get(objectName);
+        String source = cached != null ? SOURCE_MEMORY : SOURCE_MINIO;
+        return serveObject(objectName, source, object, request);
+    }
+
+    private ResponseEntity<Resource> serveObject(String objectName, String source, CachedObject object,
+                                                 HttpServletRequest request) throws IOException {
+        if (isPlaylist(objectName) && segmentUrlSigner.isPresignedPlaylist() && !objectName.endsWith("/master.m3u8")) {
+            return serveSignedPlaylist(objectName, source, object);
+        }
+        return respond(objectName, source, object.getEtag(), object.getLastModified(), object.getLength(), request,
+                (builder, offset, length) -> builder.contentLength(length)
+                        .body(new InputStreamResource(object.newInputStream(offset, length))));
+    }
+
+    /**
+     * Serves a variant playlist whose segment URIs point straight at Minio.
+     * The signatures change on every rewrite, so the response carries no
+     * validators: a 304 would let a client keep URLs that may have expired.
+     */
+    private ResponseEntity<Resource> serveSignedPlaylist(String objectName, String source, CachedObject playlist) {
+        byte[] rewritten = segmentUrlSigner.rewritePlaylist(objectName, playlist);
+        recordDelivery(objectName, source, rewritten.length);
+        return ResponseEntity.ok()
+                .contentType(getContentType(objectName))
+                .header(HttpHeaders.CACHE_CONTROL, getCacheControl(objectName))
+                .contentLength(rewritten.length)
+                .body(new ByteArrayResource(rewritten));
+    }
+
+    /**
+     * Applies conditional GET and Range handling, then delegates the body.
+     */
+    private ResponseEntity<Resource> respond(String objectName, String source, String etag, long lastModified,
+                                             long size, HttpServletRequest request, Body body) throws IOException {
+        String quotedEtag = "\"" + etag + "\"";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(quotedEtag);
+        headers.setLastModified(lastModified);
+        headers.setCacheControl(getCacheControl(objectName));
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (isNotModified(request, quotedEtag, lastModified)) {
+            recordDelivery(objectName, source, 0);
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        headers.setContentType(getContentType(objectName));
+
+        HttpRange range = getRequestedRange(request, quotedEtag, lastModified);
+        if (range == null) {
+            recordDelivery(objectName, source, size);
+            return body.write(ResponseEntity.ok().headers(headers), 0, size);
+        }
+        long start = range.getRangeStart(size);
+        long end = range.getRangeEnd(size);
+        if (start >= size || end < start) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
+        }
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        recordDelivery(objectName, source, end - start + 1);
+        return body.write(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers), start, end - start + 1);
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String quotedEtag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(quotedEtag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Returns the single range requested, or null to serve the whole object:
+     * no Range header, a stale If-Range, or several ranges at once.
+     */
+    private HttpRange getRequestedRange(HttpServletRequest request, String quotedEtag, long lastModified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(quotedEtag)) {
+            long ifRangeDate = getDateHeader(request, HttpHeaders.IF_RANGE);
+            if (ifRangeDate < 0 || lastModified / 1000 > ifRangeDate / 1000) {
+                return null;
+            }
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Hands the file to Tomcat's sendfile support, which writes it to the
+     * socket with FileChannel.transferTo after the handler returns, so the
+     * body never enters the heap. Falls back to a memory-mapped read on
+     * connectors without sendfile.
+     */
+    private ResponseEntity<Resource> serveFile(ResponseEntity.BodyBuilder builder, Path file, long offset,
+                                               long length, HttpServletRequest request) throws IOException {
+        builder.contentLength(length);
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toRealPath().toString());
+            request.setAttribute(SENDFILE_START, offset);
+            request.setAttribute(SENDFILE_END, offset + length);
+            return builder.build();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return builder.body(new InputStreamResource(
+                    new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, offset, length))));
+        }
+    }
+
+    /**
+     * Counts a playback response and its body bytes by endpoint and by the
+     * tier that served it; the share of memory and disk responses per
+     * endpoint is the cache hit ratio seen by players.
+     */
+    private void recordDelivery(String objectName, String source, long bytes) {
+        String endpoint = objectName.endsWith("/master.m3u8") ? "master" : isPlaylist(objectName) ? "playlist" : "segment";
+        meterRegistry.counter("abr.delivery.responses", "endpoint", endpoint, "source", source).increment();
+        if (bytes > 0) {
+            meterRegistry.counter("abr.delivery.bytes", "endpoint", endpoint, "source", source).increment(bytes);
+        }
+    }
+
+    private String getCacheControl(String objectName) {
+        if (isPlaylist(objectName)) {
+            // Playlists change while a video is published progressively
+            return "public, max-age=" + playlistMaxAgeSeconds;
+        }
+        // Segments never change once published
+        return "public, max-age=" + segmentMaxAgeSeconds + ", immutable";
+    }
+
+    private static MediaType getContentType(String objectName) {
+        if (isPlaylist(objectName)) {
+            return MediaType.parseMediaType("application/vnd.apple.mpegurl");
+        }
+        if (objectName.endsWith(".ts")) {
+            return MediaType.parseMediaType("video/MP2T");
+        }
+        if (objectName.endsWith(".m4s") || objectName.endsWith(".mp4")) {
+            return MediaType.parseMediaType("video/mp4");
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    private static boolean isPlaylist(String objectName) {
+        return objectName.endsWith(".m3u8");
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.abrstreaming.service;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes of a Minio object together with the validators needed for HTTP
+ * caching. The ETag is stored without quotes.
+ */
+public class CachedObject {
+
+    private final ByteBuffer content;
+    private final String etag;
+    private final long lastModified;
+
+    public CachedObject(ByteBuffer content, String etag, long lastModified) {
+        this.content = content;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns a read-only view of the whole object, positioned at the start.
+     */
+    public ByteBuffer getContent() {
+        return content.asReadOnlyBuffer();
+    }
+
+    public long getLength() {
+        return content.remaining();
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public InputStream newInputStream(long offset, long length) {
+        ByteBuffer view = content.asReadOnlyBuffer();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+        return new ByteBufferInputStream(view.slice());
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.abrstreaming.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a source into chunks for parallel encoding. Chunk boundaries sit on
+ * multiples of the HLS segment duration, so every chunk holds whole segments
+ * and the stitched renditions are cut exactly like a single-pass encode.
+ * Using the keyframe index from its {@link MediaInfo}, the planner prefers
+ * boundaries a source keyframe starts, where the seek into the chunk is
+ * free; elsewhere ffmpeg decodes from the keyframe before the boundary.
+ */
+@Component
+public class ChunkPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkPlanner.class);
+
+    @Value("${processing.chunk-seconds:60}")
+    private int chunkSeconds;
+
+    @Autowired
+    private HlsPackaging hlsPackaging;
+
+    public static class Chunk {
+        private final int index;
+        private final double start;
+        private final double duration;
+
+        Chunk(int index, double start, double duration) {
+            this.index = index;
+            this.start = start;
+            this.duration = duration;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /** Seconds from the start of the source. */
+        public double getStart() {
+            return start;
+        }
+
+        /** Length in seconds, or 0 for the last chunk, which runs to the end. */
+        public double getDuration() {
+            return duration;
+        }
+    }
+
+    /**
+     * Returns the chunks for a source, each a whole number of segments and
+     * at least {@code chunk-seconds} long. A boundary is the first multiple
+     * of the segment duration at least {@code chunk-seconds} after the
+     * previous one that a source keyframe starts within a frame of, looking
+     * up to half a chunk further; without one it is the first multiple. A
+     * source without a keyframe index or too short to split comes back as a
+     * single chunk.
+     */
+    public List<Chunk> plan(MediaInfo media) {
+        double duration = media.getDurationSeconds();
+        double segmentSeconds = Double.parseDouble(hlsPackaging.getHlsTime());
+        double frameSeconds = media.getFrameRate() > 0 ? 1 / media.getFrameRate() : 0.04;
+        int segmentsPerChunk = (int) Math.max(1, Math.ceil(chunkSeconds / segmentSeconds));
+        int search = Math.max(1, segmentsPerChunk / 2);
+        List<Double> keyframes = media.getKeyframes();
+
+        List<Double> boundaries = new ArrayList<>();
+        boundaries.add(0.0);
+        long segment = segmentsPerChunk;
+        while (!keyframes.isEmpty() && duration > 0) {
+            long chosen = segment;
+            for (long candidate = segment; candidate < segment + search; candidate++) {
+                if (startsKeyframe(keyframes, candidate * segmentSeconds, frameSeconds)) {
+                    chosen = candidate;
+                    break;
+                }
+            }
+            double boundary = chosen * segmentSeconds;
+            if (duration - boundary < chunkSeconds / 4.0) {
+                // A short tail is cheaper to encode with the chunk before it
+                break;
+            }
+            boundaries.add(boundary);
+            segment = chosen + segmentsPerChunk;
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < boundaries.size(); i++) {
+            double start = boundaries.get(i);
+            double length = i + 1 < boundaries.size() ? boundaries.get(i + 1) - start : 0;
+            chunks.add(new Chunk(i, start, length));
+        }
+        logger.info("Planned {} chunks of ~{}s ({} keyframes, {}s)",
+                chunks.size(), chunkSeconds, media.getKeyframes().size(), duration);
+        return chunks;
+    }
+
+    /**
+     * Checks whether a keyframe lies in {@code [time, time + frameSeconds)},
+     * so the first frame at or after {@code time} is a keyframe.
+     */
+    private static boolean startsKeyframe(List<Double> keyframes, double time, double frameSeconds) {
+        for (double keyframe : keyframes) {
+            if (keyframe >= time + frameSeconds) {
+                return false;
+            }
+            if (keyframe >= time) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
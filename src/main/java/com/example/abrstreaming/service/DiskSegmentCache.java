@@ -0,0 +1,339 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local disk tier between the in-memory cache and Minio. Segments are stored
+ * under {@code cache.disk.path} using their object names and evicted in LRU
+ * order once their total size exceeds {@code cache.disk.max-bytes}. Callers
+ * serve hits straight from the returned file so segment bodies can go out
+ * with sendfile without passing through the Java heap.
+ *
+ * <p>Each file has a {@code .meta} sidecar holding the object's ETag and
+ * Last-Modified time, so hits can be validated like Minio responses.
+ *
+ * <p>A {@code cache.disk.max-bytes} of 0 disables the tier: nothing is
+ * written and every lookup misses without touching the disk.
+ *
+ * <p>Every write goes to a new file whose name ends in {@code ~<generation>},
+ * so evicted or replaced files can be deleted outside the lock without ever
+ * removing a newer copy of the same object.
+ */
+@Component
+public class DiskSegmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskSegmentCache.class);
+    private static final String META_SUFFIX = ".meta";
+    private static final Pattern GENERATION = Pattern.compile("^(.+)~(\\d+)$");
+
+    @Value("${cache.disk.path:output/segment-cache}")
+    private String cachePath;
+
+    @Value("${cache.disk.max-bytes:10737418240}")
+    private long maxBytes;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Path root;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long currentBytes;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static class Entry {
+        private final Path file;
+        private final long size;
+        private final String etag;
+        private final long lastModified;
+
+        Entry(Path file, long size, String etag, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Paths.get(cachePath).toAbsolutePath().normalize();
+        registerMeters();
+        if (!isEnabled()) {
+            logger.info("Disk segment cache is disabled");
+            return;
+        }
+        Files.createDirectories(root);
+        // Rebuild the index oldest-first so LRU order roughly survives a restart
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .filter(file -> !file.getFileName().toString().endsWith(META_SUFFIX))
+                    .sorted(Comparator.comparingLong(file -> file.toFile().lastModified()))
+                    .collect(Collectors.toList());
+        }
+        List<Path> victims;
+        synchronized (entries) {
+            for (Path file : files) {
+                Matcher name = GENERATION.matcher(root.relativize(file).toString().replace('\\', '/'));
+                Entry entry = name.matches() ? readEntry(file) : null;
+                if (entry == null) {
+                    // Without validators the file cannot be served
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(metaFile(file));
+                    continue;
+                }
+                generation.accumulateAndGet(Long.parseLong(name.group(2)), Math::max);
+                Entry previous = entries.put(name.group(1), entry);
+                if (previous != null) {
+                    // Left behind by a crash between writing a copy and dropping the old one
+                    currentBytes -= previous.getSize();
+                    Files.deleteIfExists(previous.getFile());
+                    Files.deleteIfExists(metaFile(previous.getFile()));
+                }
+                currentBytes += entry.getSize();
+            }
+            victims = evictIfNeeded();
+        }
+        delete(victims);
+        logger.info("Disk segment cache at {} holds {} files, {} bytes", root, entries.size(), currentBytes);
+    }
+
+    private void registerMeters() {
+        FunctionCounter.builder("abr.cache.requests", hits, AtomicLong::get)
+                .tags("tier", "disk", "result", "hit").register(meterRegistry);
+        FunctionCounter.builder("abr.cache.requests", misses, AtomicLong::get)
+                .tags("tier", "disk", "result", "miss").register(meterRegistry);
+        FunctionCounter.builder("abr.cache.evictions", evictions, AtomicLong::get)
+                .tag("tier", "disk").register(meterRegistry);
+        Gauge.builder("abr.cache.size", this, cache -> cache.getStats().get("bytes"))
+                .tag("tier", "disk").baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached file for {@code objectName}, or null on a miss.
+     */
+    public Entry find(String objectName) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(objectName);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Checks for {@code objectName} without counting a hit or miss or
+     * touching its LRU position.
+     */
+    public boolean contains(String objectName) {
+        synchronized (entries) {
+            return entries.containsKey(objectName);
+        }
+    }
+
+    /**
+     * Writes fetched bytes to the tier. Failures only cost a future miss.
+     */
+    public void put(String objectName, CachedObject object) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path file = newFile(objectName);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer source = object.getContent();
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            register(objectName, new Entry(file, object.getLength(), object.getEtag(), object.getLastModified()));
+        } catch (IOException e) {
+            logger.warn("Failed to write {} to disk cache", objectName, e);
+        }
+    }
+
+    /**
+     * Seeds the tier from a freshly written local file, hard-linking it when
+     * possible so seeding costs no copy. {@code etag} is the one Minio
+     * returned for the upload.
+     */
+    public void seed(String objectName, Path source, String etag) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path file = newFile(objectName);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            try {
+                Files.createLink(file, source);
+            } catch (IOException | UnsupportedOperationException e) {
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            register(objectName, new Entry(file, Files.size(file), etag, System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.warn("Failed to seed {} into disk cache", objectName, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (entries) {
+            stats.put("entries", (long) entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private void register(String objectName, Entry entry) throws IOException {
+        Path meta = metaFile(entry.getFile());
+        Files.write(meta, Arrays.asList(entry.getEtag(), String.valueOf(entry.getLastModified())),
+                StandardCharsets.UTF_8);
+        List<Path> victims;
+        synchronized (entries) {
+            Entry previous = entries.put(objectName, entry);
+            if (previous != null) {
+                currentBytes -= previous.getSize();
+            }
+            currentBytes += entry.getSize();
+            victims = evictIfNeeded();
+            if (previous != null) {
+                victims.add(previous.getFile());
+            }
+        }
+        delete(victims);
+    }
+
+    private Entry readEntry(Path file) {
+        try {
+            List<String> meta = Files.readAllLines(metaFile(file), StandardCharsets.UTF_8);
+            return new Entry(file, Files.size(file), meta.get(0), Long.parseLong(meta.get(1)));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Path metaFile(Path file) {
+        return file.resolveSibling(file.getFileName() + META_SUFFIX);
+    }
+
+    /**
+     * Drops LRU entries until the tier fits its budget. Must be called while
+     * holding the entries lock; the returned files are deleted by the caller
+     * after releasing it, so no request thread waits on disk I/O inside the
+     * monitor (which would also pin a virtual thread to its carrier).
+     */
+    private List<Path> evictIfNeeded() {
+        List<Path> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> victim = eldest.next();
+            currentBytes -= victim.getValue().getSize();
+            victims.add(victim.getValue().getFile());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        return victims;
+    }
+
+    private void delete(List<Path> victims) {
+        for (Path file : victims) {
+            try {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(metaFile(file));
+            } catch (IOException e) {
+                logger.warn("Failed to delete evicted cache file {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Returns a file no other write of {@code objectName} uses, or null if
+     * the name would leave the cache root.
+     */
+    private Path newFile(String objectName) {
+        Path file = root.resolve(objectName).normalize();
+        if (!file.startsWith(root) || file.equals(root)) {
+            logger.warn("Rejecting cache key outside cache root: {}", objectName);
+            return null;
+        }
+        return file.resolveSibling(file.getFileName() + "~" + generation.incrementAndGet());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Budgets CPU cores across concurrently running ffmpeg processes. Each job
+ * gets at most {@code totalCores / processing.workers} cores, and each
+ * process leases a number of cores proportional to its share of the work in
+ * its job and passes that number to ffmpeg as {@code -threads}. Leases block
+ * while the budget is used up, so the node is never oversubscribed no matter
+ * how many jobs are queued.
+ *
+ * <p>Leases are held for a whole ffmpeg run and are never resized, so a job
+ * that starts alone must not take the cores of the jobs that start after it:
+ * a lone job leaves the other workers' budgets idle rather than holding them
+ * until its ladder ends.
+ */
+@Component
+public class EncodeScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(EncodeScheduler.class);
+
+    @Value("${processing.encode-cores:0}")
+    private int configuredCores;
+
+    @Value("${processing.workers:2}")
+    private int workers;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private int totalCores;
+    private int jobCores;
+    private Semaphore cores;
+    private final AtomicInteger activeJobs = new AtomicInteger();
+
+    @PostConstruct
+    void init() {
+        totalCores = configuredCores > 0 ? configuredCores : Runtime.getRuntime().availableProcessors();
+        jobCores = Math.max(1, totalCores / Math.max(1, workers));
+        cores = new Semaphore(totalCores, true);
+        logger.info("Encode scheduler budgeting {} cores, {} per job", totalCores, jobCores);
+
+        Gauge.builder("abr.encode.cores.leased", cores, semaphore -> totalCores - semaphore.availablePermits())
+                .description("Cores leased to running ffmpeg processes")
+                .register(meterRegistry);
+        Gauge.builder("abr.encode.cores.waiting", cores, Semaphore::getQueueLength)
+                .description("Processes waiting for cores")
+                .register(meterRegistry);
+        Gauge.builder("abr.encode.jobs.active", activeJobs, AtomicInteger::get)
+                .description("Jobs currently encoding")
+                .register(meterRegistry);
+    }
+
+    public void jobStarted() {
+        activeJobs.incrementAndGet();
+    }
+
+    public void jobFinished() {
+        activeJobs.decrementAndGet();
+    }
+
+    /**
+     * Blocks until enough cores are free for a process doing {@code share}
+     * (0..1] of its job's encode work, and returns the lease.
+     */
+    public Lease acquire(double share) throws InterruptedException {
+        int threads = (int) Math.round(jobCores * share);
+        threads = Math.max(1, Math.min(jobCores, threads));
+        cores.acquire(threads);
+        logger.debug("Leased {} of {} cores ({} available)", threads, totalCores, cores.availablePermits());
+        return new Lease(threads);
+    }
+
+    public class Lease implements AutoCloseable {
+        private final int threads;
+
+        private Lease(int threads) {
+            this.threads = threads;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            cores.release(threads);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.abrstreaming.service;
+
+import java.time.Instant;
+
+/**
+ * Latest progress of one ffmpeg step, parsed from its {@code -progress}
+ * output. Percent and ETA are only known when the step's media duration is.
+ */
+public class FfmpegProgress {
+
+    private String videoId;
+    private String step;
+    private long frame;
+    private double fps;
+    private double speed;
+    private double outTimeSeconds;
+    private double durationSeconds;
+    private boolean finished;
+    private Instant updatedAt;
+
+    public FfmpegProgress() {
+    }
+
+    FfmpegProgress(String videoId, String step, double durationSeconds) {
+        this.videoId = videoId;
+        this.step = step;
+        this.durationSeconds = durationSeconds;
+        this.updatedAt = Instant.now();
+    }
+
+    FfmpegProgress copy() {
+        FfmpegProgress copy = new FfmpegProgress(videoId, step, durationSeconds);
+        copy.frame = frame;
+        copy.fps = fps;
+        copy.speed = speed;
+        copy.outTimeSeconds = outTimeSeconds;
+        copy.finished = finished;
+        copy.updatedAt = updatedAt;
+        return copy;
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public void setVideoId(String videoId) {
+        this.videoId = videoId;
+    }
+
+    /** Which ffmpeg invocation of the job this is, e.g. "ladder", "chunk-3" or "hls-720p". */
+    public String getStep() {
+        return step;
+    }
+
+    public void setStep(String step) {
+        this.step = step;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    public void setFrame(long frame) {
+        this.frame = frame;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public void setFps(double fps) {
+        this.fps = fps;
+    }
+
+    /** Encoding speed relative to real time, e.g. 2.5 for "2.5x". */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /** Media time written so far. */
+    public double getOutTimeSeconds() {
+        return outTimeSeconds;
+    }
+
+    public void setOutTimeSeconds(double outTimeSeconds) {
+        this.outTimeSeconds = outTimeSeconds;
+    }
+
+    /** Media duration the step will write, 0 if unknown. */
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(double durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public Double getPercent() {
+        if (durationSeconds <= 0) {
+            return null;
+        }
+        return Math.min(100.0, 100.0 * outTimeSeconds / durationSeconds);
+    }
+
+    public Double getEtaSeconds() {
+        if (durationSeconds <= 0 || speed <= 0) {
+            return null;
+        }
+        return Math.max(0, (durationSeconds - outTimeSeconds) / speed);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public void setFinished(boolean finished) {
+        this.finished = finished;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.abrstreaming.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How renditions are packaged for HLS.
+ *
+ * <p>{@code processing.segment-format} selects the container:
+ * <ul>
+ *   <li>{@code ts}: MPEG-TS segments (default)</li>
+ *   <li>{@code fmp4}: fragmented MP4 (CMAF) segments that share one
+ *   initialization segment, referenced with {@code EXT-X-MAP}</li>
+ * </ul>
+ *
+ * <p>With {@code processing.single-file} each rendition is written to one
+ * file and the playlist addresses segments in it with
+ * {@code EXT-X-BYTERANGE}, so a rendition is one Minio object instead of
+ * one per segment. The file only goes to Minio once it is complete, so such
+ * renditions are not published progressively.
+ *
+ * <p>With {@code processing.low-latency.enabled} ffmpeg writes fMP4 parts
+ * of {@code part-seconds}, each starting on a keyframe, and
+ * {@link SegmentUploader} publishes them as {@code EXT-X-PART}s of media
+ * segments that are {@code parts-per-segment} parts long. Low-latency
+ * output is always fMP4 and never a single file.
+ */
+@Component
+public class HlsPackaging {
+
+    public static final String FORMAT_TS = "ts";
+    public static final String FORMAT_FMP4 = "fmp4";
+
+    /** Base name of the file holding a whole rendition in single-file mode. */
+    public static final String SINGLE_FILE_NAME = "rendition";
+
+    private static final Pattern MAP_URI = Pattern.compile("URI=\"([^\"]+)\"");
+
+    @Value("${processing.segment-format:ts}")
+    private String segmentFormat;
+
+    @Value("${processing.single-file:false}")
+    private boolean singleFile;
+
+    @Value("${processing.low-latency.enabled:false}")
+    private boolean lowLatency;
+
+    @Value("${processing.low-latency.part-seconds:1.0}")
+    private double partSeconds;
+
+    @Value("${processing.low-latency.parts-per-segment:4}")
+    private int partsPerSegment;
+
+    public boolean isFmp4() {
+        return lowLatency || FORMAT_FMP4.equals(segmentFormat);
+    }
+
+    public boolean isSingleFile() {
+        return singleFile && !lowLatency;
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+    public double getPartSeconds() {
+        return partSeconds;
+    }
+
+    public int getPartsPerSegment() {
+        return partsPerSegment;
+    }
+
+    /**
+     * Returns the target duration of the media segments players see.
+     */
+    public int getTargetDurationSeconds() {
+        return lowLatency ? (int) Math.ceil(partSeconds * partsPerSegment) : 10;
+    }
+
+    /**
+     * Returns the {@code -hls_time} of ffmpeg: the segment length, or the
+     * part length in low-latency mode.
+     */
+    public String getHlsTime() {
+        return lowLatency ? String.format(Locale.ROOT, "%.3f", partSeconds) : "10";
+    }
+
+    /**
+     * Returns the {@code -force_key_frames} expression that puts a keyframe
+     * at every boundary ffmpeg cuts at, so renditions stay aligned and every
+     * low-latency part is independent.
+     */
+    public String getKeyframeExpression() {
+        return "expr:gte(t,n_forced*" + getHlsTime() + ")";
+    }
+
+    /**
+     * Returns the extension of media segments, including the dot.
+     */
+    public String getSegmentExtension() {
+        return isFmp4() ? ".m4s" : ".ts";
+    }
+
+    /**
+     * Returns the lowest EXT-X-VERSION the playlists need: 7 for EXT-X-MAP
+     * in media playlists, 4 for EXT-X-BYTERANGE.
+     */
+    public int getPlaylistVersion(boolean singleFile) {
+        if (isFmp4()) {
+            return 7;
+        }
+        return singleFile ? 4 : 3;
+    }
+
+    /**
+     * Returns the HLS muxer options that select the segment container and
+     * name the segments written to {@code directory}, which may contain
+     * {@code %v}. Segments are named {@code segmentPrefix} plus their
+     * sequence number, or {@link #SINGLE_FILE_NAME} when {@code singleFile}.
+     */
+    public List<String> getMuxerArguments(String directory, String segmentPrefix, boolean singleFile) {
+        List<String> arguments = new ArrayList<>();
+        if (isFmp4()) {
+            // Written next to the variant playlist; ffmpeg adds a suffix per
+            // variant stream, the playlists name the file actually used
+            arguments.addAll(Arrays.asList("-hls_segment_type", "fmp4", "-hls_fmp4_init_filename", "init.mp4"));
+        }
+        // Segments are renamed into place when complete; a single file grows
+        // in place and is only read once ffmpeg has exited
+        arguments.addAll(Arrays.asList("-hls_flags", singleFile ? "single_file" : "temp_file"));
+        String name = singleFile ? SINGLE_FILE_NAME : segmentPrefix + "%d";
+        arguments.addAll(Arrays.asList("-hls_segment_filename", directory + "/" + name + getSegmentExtension()));
+        return arguments;
+    }
+
+    /**
+     * Returns whether {@code objectName} holds a whole rendition in
+     * single-file mode. Such objects are always read in ranges.
+     */
+    public static boolean isSingleFileObject(String objectName) {
+        String name = objectName.substring(objectName.lastIndexOf('/') + 1);
+        return name.equals(SINGLE_FILE_NAME + ".ts") || name.equals(SINGLE_FILE_NAME + ".m4s");
+    }
+
+    /**
+     * Returns the URI of an {@code EXT-X-MAP} tag, or null if {@code tag}
+     * is not one.
+     */
+    public static String getMapUri(String tag) {
+        if (!tag.startsWith("#EXT-X-MAP:")) {
+            return null;
+        }
+        Matcher matcher = MAP_URI.matcher(tag);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Returns the length of an {@code EXT-X-BYTERANGE} tag, or -1 if
+     * {@code tag} is not one.
+     */
+    public static long getByteRangeLength(String tag) {
+        if (!tag.startsWith("#EXT-X-BYTERANGE:")) {
+            return -1;
+        }
+        String range = tag.substring("#EXT-X-BYTERANGE:".length());
+        int at = range.indexOf('@');
+        return Long.parseLong((at < 0 ? range : range.substring(0, at)).trim());
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Admission control and ordering for processing jobs. At most
+ * {@code processing.workers} jobs run at once; the rest wait in one queue
+ * per {@link JobPriority}. Within a priority, tenants take turns so one
+ * tenant's bulk upload cannot starve the others. Once
+ * {@code processing.queue-capacity} jobs are waiting, or a tenant has
+ * {@code ingest.tenant-queue-capacity} waiting, new jobs are rejected with
+ * a {@link TaskRejectedException}, which the API answers with 429.
+ */
+@Component
+public class IngestScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestScheduler.class);
+    public static final String DEFAULT_TENANT = "default";
+
+    @Autowired
+    private ThreadPoolTaskExecutor videoProcessingExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${processing.workers:2}")
+    private int maxConcurrent;
+
+    @Value("${processing.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${ingest.tenant-queue-capacity:20}")
+    private int tenantQueueCapacity;
+
+    // Per priority: waiting jobs per tenant, in the order tenants take turns
+    private final Map<JobPriority, LinkedHashMap<String, Deque<Task>>> queues = new EnumMap<>(JobPriority.class);
+    private final Map<String, Integer> queuedPerTenant = new LinkedHashMap<>();
+    private int queued;
+    private int running;
+
+    private static class Task {
+        final String videoId;
+        final String tenant;
+        final Runnable job;
+
+        Task(String videoId, String tenant, Runnable job) {
+            this.videoId = videoId;
+            this.tenant = tenant;
+            this.job = job;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        for (JobPriority priority : JobPriority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+            Gauge.builder("abr.ingest.queued", this, scheduler -> scheduler.getQueued(priority))
+                    .description("Jobs waiting to start processing")
+                    .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Fails fast if a job for {@code tenant} would be rejected now, so
+     * uploads can be refused before the source is transferred. A job may
+     * still be rejected by {@link #submit} if the queue fills meanwhile.
+     */
+    public synchronized void checkAdmission(String tenant) {
+        if (running < maxConcurrent) {
+            return;
+        }
+        if (queued >= queueCapacity) {
+            throw new TaskRejectedException("Processing queue is full");
+        }
+        if (queuedPerTenant.getOrDefault(tenantOrDefault(tenant), 0) >= tenantQueueCapacity) {
+            throw new TaskRejectedException("Processing queue of tenant " + tenantOrDefault(tenant) + " is full");
+        }
+    }
+
+    /**
+     * Queues {@code job} and starts it as soon as a slot is free and it is
+     * next in line.
+     */
+    public void submit(String videoId, String tenant, JobPriority priority, Runnable job) {
+        String owner = tenantOrDefault(tenant);
+        synchronized (this) {
+            checkAdmission(owner);
+            queues.get(priority).computeIfAbsent(owner, key -> new ArrayDeque<>()).add(new Task(videoId, owner, job));
+            queuedPerTenant.merge(owner, 1, Integer::sum);
+            queued++;
+            logger.info("Queued videoId: {} for tenant {} at priority {} ({} waiting, {} running)",
+                    videoId, owner, priority, queued, running);
+        }
+        dispatch();
+    }
+
+    /**
+     * Drops a job that has not started yet. Returns false if it is not
+     * waiting.
+     */
+    public synchronized boolean remove(String videoId) {
+        for (LinkedHashMap<String, Deque<Task>> tenants : queues.values()) {
+            for (Iterator<Deque<Task>> it = tenants.values().iterator(); it.hasNext(); ) {
+                Deque<Task> tasks = it.next();
+                for (Iterator<Task> taskIt = tasks.iterator(); taskIt.hasNext(); ) {
+                    Task task = taskIt.next();
+                    if (task.videoId.equals(videoId)) {
+                        taskIt.remove();
+                        if (tasks.isEmpty()) {
+                            it.remove();
+                        }
+                        dequeued(task);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized int getQueued(JobPriority priority) {
+        int count = 0;
+        for (Deque<Task> tasks : queues.get(priority).values()) {
+            count += tasks.size();
+        }
+        return count;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running);
+        stats.put("queued", queued);
+        stats.put("queuedPerTenant", new LinkedHashMap<>(queuedPerTenant));
+        return stats;
+    }
+
+    private void dispatch() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                if (running >= maxConcurrent) {
+                    return;
+                }
+                task = next();
+                if (task == null) {
+                    return;
+                }
+                running++;
+            }
+            try {
+                videoProcessingExecutor.execute(() -> {
+                    try {
+                        task.job.run();
+                    } finally {
+                        synchronized (this) {
+                            running--;
+                        }
+                        dispatch();
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                // Only on shutdown: the pool never holds more than the slots handed out
+                logger.error("Processing pool rejected videoId: {}", task.videoId, e);
+                synchronized (this) {
+                    running--;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the head of the first tenant in the highest non-empty priority
+     * and moves that tenant to the back of its priority's rotation.
+     */
+    private Task next() {
+        for (JobPriority priority : JobPriority.values()) {
+            LinkedHashMap<String, Deque<Task>> tenants = queues.get(priority);
+            Iterator<Map.Entry<String, Deque<Task>>> it = tenants.entrySet().iterator();
+            if (!it.hasNext()) {
+                continue;
+            }
+            Map.Entry<String, Deque<Task>> first = it.next();
+            Deque<Task> tasks = first.getValue();
+            Task task = tasks.poll();
+            it.remove();
+            if (!tasks.isEmpty()) {
+                tenants.put(first.getKey(), tasks);
+            }
+            dequeued(task);
+            return task;
+        }
+        return null;
+    }
+
+    private void dequeued(Task task) {
+        queued--;
+        queuedPerTenant.computeIfPresent(task.tenant, (tenant, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public static String tenantOrDefault(String tenant) {
+        return tenant == null || tenant.isBlank() ? DEFAULT_TENANT : tenant.trim();
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.abrstreaming.service;
+
+import java.util.Locale;
+
+/**
+ * Scheduling priority of a processing job. Queued jobs of a higher priority
+ * always start before those of a lower one.
+ */
+public enum JobPriority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    /**
+     * Parses a priority given by a client, case-insensitively; null means
+     * NORMAL.
+     */
+    public static JobPriority parse(String value) {
+        if (value == null || value.isBlank()) {
+            return NORMAL;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown priority: " + value);
+        }
+    }
+}
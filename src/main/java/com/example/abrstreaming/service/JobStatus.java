@@ -0,0 +1,20 @@
+package com.example.abrstreaming.service;
+
+/**
+ * Lifecycle of a video processing job. A job moves forward through the
+ * processing stages and ends in READY, FAILED or CANCELLED.
+ */
+public enum JobStatus {
+    QUEUED,
+    PROBING,
+    TRANSCODING,
+    PACKAGING,
+    UPLOADING,
+    READY,
+    FAILED,
+    CANCELLED;
+
+    public boolean isTerminal() {
+        return this == READY || this == FAILED || this == CANCELLED;
+    }
+}
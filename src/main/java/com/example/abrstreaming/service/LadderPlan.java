@@ -0,0 +1,87 @@
+package com.example.abrstreaming.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The renditions chosen for one video, highest first, with the libx264
+ * settings each is encoded with.
+ */
+public class LadderPlan {
+
+    private final Map<String, Rendition> renditions = new LinkedHashMap<>();
+
+    public static class Rendition {
+        private final String preset;
+        private final Integer crf;
+        private final long maxrate;
+        private final long bufsize;
+
+        /**
+         * Null {@code preset} or {@code crf} leaves the libx264 default; a
+         * {@code maxrate} of 0 means uncapped.
+         */
+        public Rendition(String preset, Integer crf, long maxrate, long bufsize) {
+            this.preset = preset;
+            this.crf = crf;
+            this.maxrate = maxrate;
+            this.bufsize = bufsize;
+        }
+
+        public String getPreset() {
+            return preset;
+        }
+
+        public Integer getCrf() {
+            return crf;
+        }
+
+        /** Bit rate cap in bits per second, 0 if uncapped. */
+        public long getMaxrate() {
+            return maxrate;
+        }
+
+        /** VBV buffer size in bits, 0 if uncapped. */
+        public long getBufsize() {
+            return bufsize;
+        }
+
+        /**
+         * Returns the libx264 options for these settings. {@code streamSuffix}
+         * selects an output stream in a multi-output command, e.g. ":v:1", and
+         * is empty for single-output commands.
+         */
+        public List<String> toEncoderArguments(String streamSuffix) {
+            List<String> arguments = new ArrayList<>();
+            if (preset != null) {
+                arguments.add("-preset" + streamSuffix);
+                arguments.add(preset);
+            }
+            if (crf != null) {
+                arguments.add("-crf" + streamSuffix);
+                arguments.add(String.valueOf(crf));
+            }
+            if (maxrate > 0) {
+                arguments.add("-maxrate" + streamSuffix);
+                arguments.add(String.valueOf(maxrate));
+                arguments.add("-bufsize" + streamSuffix);
+                arguments.add(String.valueOf(bufsize));
+            }
+            return arguments;
+        }
+    }
+
+    public void add(String quality, Rendition rendition) {
+        renditions.put(quality, rendition);
+    }
+
+    public List<String> getQualities() {
+        return new ArrayList<>(renditions.keySet());
+    }
+
+    public Rendition getRendition(String quality) {
+        return renditions.get(quality);
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.abrstreaming.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Chooses a per-title bitrate ladder. A fast trial encode of a few sampled
+ * windows at 240p and 480p measures how many bits the content needs at the
+ * target CRF and how that grows with resolution. From that each candidate
+ * rendition gets an estimated bit rate, a maxrate/bufsize cap for
+ * predictable ABR switching and a preset, and renditions whose bit rate
+ * would be too close to the next higher one are dropped: a static talking
+ * head ends up with fewer, cheaper renditions than high-motion footage.
+ */
+@Component
+public class LadderPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LadderPlanner.class);
+    private static final int[] TRIAL_HEIGHTS = {240, 480};
+    // The trial encodes a few seconds at low resolutions; a small lease lets
+    // it start while other jobs are encoding their ladders
+    private static final double TRIAL_CORE_SHARE = 0.25;
+    private static final double DEFAULT_EXPONENT = 0.75;
+    private static final double MIN_EXPONENT = 0.3;
+    private static final double MAX_EXPONENT = 1.0;
+    // Bits per pixel per frame a rendition is never allowed to exceed;
+    // about 6 Mbit/s for 1080p30
+    private static final double CEILING_BITS_PER_PIXEL = 0.1;
+    private static final long MIN_MAXRATE = 64000;
+
+    @Value("${processing.per-title.enabled:true}")
+    private boolean enabled;
+
+    @Value("${processing.per-title.crf:23}")
+    private int crf;
+
+    /**
+     * A rendition is kept only if the next higher one needs at least this
+     * many times its bit rate.
+     */
+    @Value("${processing.per-title.min-step:1.5}")
+    private double minStep;
+
+    @Value("${processing.per-title.sample-windows:5}")
+    private int sampleWindows;
+
+    @Value("${processing.per-title.sample-seconds:4}")
+    private int sampleSeconds;
+
+    @Autowired
+    private EncodeScheduler encodeScheduler;
+
+    @Autowired
+    private ProcessRunner processRunner;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The ladder used without per-title analysis: every candidate, scaled
+     * renditions at ultrafast/CRF 35 and "original" at libx264 defaults.
+     */
+    public LadderPlan fixedPlan(List<String> qualities) {
+        LadderPlan plan = new LadderPlan();
+        for (String quality : qualities) {
+            plan.add(quality, quality.equals("original")
+                    ? new LadderPlan.Rendition(null, null, 0, 0)
+                    : new LadderPlan.Rendition("ultrafast", 35, 0, 0));
+        }
+        return plan;
+    }
+
+    /**
+     * Plans the ladder for {@code source} from {@code candidates}, which maps
+     * each candidate quality to its output pixel count, highest first. The
+     * trial encodes are written to {@code workDir} and removed afterwards.
+     */
+    public LadderPlan plan(String videoId, String source, Path workDir, MediaInfo media,
+                           LinkedHashMap<String, Long> candidates) {
+        double fps = media.getFrameRate() > 0 ? media.getFrameRate() : 30;
+        int[] trialHeights = media.getHeight() > TRIAL_HEIGHTS[0]
+                ? new int[] {TRIAL_HEIGHTS[0], Math.min(TRIAL_HEIGHTS[1], media.getHeight())}
+                : new int[] {media.getHeight()};
+        long[] trialPixels = new long[trialHeights.length];
+        int[] trialWidths = new int[trialHeights.length];
+        for (int i = 0; i < trialHeights.length; i++) {
+            trialWidths[i] = Math.max(2, (int) Math.round(
+                    (double) media.getWidth() * trialHeights[i] / media.getHeight() / 2) * 2);
+            trialPixels[i] = (long) trialWidths[i] * trialHeights[i];
+        }
+        double[] trialBitrates = measureTrialBitrates(videoId, source, workDir, media, trialWidths, trialHeights);
+
+        // Bits needed grow with a power of the pixel count. Detailed content
+        // keeps needing more bits as resolution rises; for flat content the
+        // curve levels off, which is what makes neighbouring renditions
+        // redundant. The exponent is fitted from the two trial encodes.
+        double exponent = DEFAULT_EXPONENT;
+        if (trialBitrates != null && trialBitrates.length == 2 && trialBitrates[0] > 0 && trialBitrates[1] > 0) {
+            exponent = Math.log(trialBitrates[1] / trialBitrates[0]) / Math.log((double) trialPixels[1] / trialPixels[0]);
+            exponent = Math.max(MIN_EXPONENT, Math.min(MAX_EXPONENT, exponent));
+        }
+
+        LadderPlan plan = new LadderPlan();
+        double lastKept = 0;
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            String quality = candidate.getKey();
+            long pixels = candidate.getValue();
+            long ceiling = (long) (pixels * fps * CEILING_BITS_PER_PIXEL);
+            double estimate = trialBitrates != null && trialBitrates[0] > 0
+                    ? Math.min(ceiling, trialBitrates[0] * Math.pow((double) pixels / trialPixels[0], exponent))
+                    : ceiling;
+            if (lastKept > 0 && estimate * minStep > lastKept) {
+                logger.info("Dropping {} from the ladder: ~{} kbit/s is within {}x of the rendition above ({} kbit/s)",
+                        quality, Math.round(estimate / 1000), minStep, Math.round(lastKept / 1000));
+                continue;
+            }
+            long maxrate = Math.max(MIN_MAXRATE, Math.min(ceiling, (long) (estimate * 1.5)));
+            // Slower presets are affordable where there are few pixels to encode
+            String preset = pixels <= 854L * 480L ? "fast" : "veryfast";
+            plan.add(quality, new LadderPlan.Rendition(preset, crf, maxrate, 2 * maxrate));
+            lastKept = estimate;
+            logger.info("Ladder rendition {}: preset {}, crf {}, ~{} kbit/s, maxrate {} kbit/s",
+                    quality, preset, crf, Math.round(estimate / 1000), maxrate / 1000);
+        }
+        return plan;
+    }
+
+    /**
+     * Encodes sampled windows of the source once per trial resolution, from
+     * a single decode, and returns the resulting bit rates, or null if the
+     * trial could not run.
+     */
+    private double[] measureTrialBitrates(String videoId, String source, Path workDir, MediaInfo media,
+                                          int[] widths, int[] heights) {
+        double duration = media.getDurationSeconds();
+        if (duration <= 0) {
+            logger.warn("Unknown duration for {}, skipping the trial encode", source);
+            return null;
+        }
+
+        List<String> command = new ArrayList<>(Arrays.asList("ffmpeg", "-y", "-loglevel", "error"));
+        StringBuilder filterGraph = new StringBuilder();
+        double sampled;
+        if (duration <= 2.0 * sampleWindows * sampleSeconds) {
+            command.addAll(Arrays.asList("-i", source));
+            filterGraph.append("[0:v]");
+            sampled = duration;
+        } else {
+            // Windows spread evenly over the source; input seeking keeps
+            // the trial cost independent of the source length
+            for (int i = 0; i < sampleWindows; i++) {
+                double start = duration * (i + 0.5) / sampleWindows - sampleSeconds / 2.0;
+                command.addAll(Arrays.asList("-ss", String.format(Locale.ROOT, "%.3f", start),
+                        "-t", String.valueOf(sampleSeconds), "-i", source));
+                filterGraph.append('[').append(i).append(":v]");
+            }
+            filterGraph.append("concat=n=").append(sampleWindows).append(":v=1:a=0,");
+            sampled = (double) sampleWindows * sampleSeconds;
+        }
+        filterGraph.append("split=").append(heights.length);
+        for (int i = 0; i < heights.length; i++) {
+            filterGraph.append("[in").append(i).append(']');
+        }
+        for (int i = 0; i < heights.length; i++) {
+            filterGraph.append(";[in").append(i).append("]scale=").append(widths[i]).append(':').append(heights[i])
+                    .append("[trial").append(i).append(']');
+        }
+
+        List<Path> trialFiles = new ArrayList<>();
+        try (EncodeScheduler.Lease lease = encodeScheduler.acquire(TRIAL_CORE_SHARE)) {
+            command.addAll(Arrays.asList("-filter_complex", filterGraph.toString()));
+            for (int i = 0; i < heights.length; i++) {
+                Path trialFile = workDir.resolve("trial-" + heights[i] + ".mkv");
+                trialFiles.add(trialFile);
+                command.addAll(Arrays.asList("-map", "[trial" + i + "]", "-an",
+                        "-c:v", "libx264", "-preset", "veryfast", "-crf", String.valueOf(crf),
+                        "-threads", String.valueOf(lease.getThreads()), "-f", "matroska", trialFile.toString()));
+            }
+            Files.createDirectories(workDir);
+            try {
+                processRunner.runFfmpeg(videoId, "trial", command, sampled);
+            } catch (RuntimeException e) {
+                if (processRunner.isCancelled(videoId)) {
+                    throw e;
+                }
+                logger.warn("Trial encode failed for {}: {}", source, e.getMessage());
+                return null;
+            }
+            double[] bitrates = new double[heights.length];
+            for (int i = 0; i < heights.length; i++) {
+                bitrates[i] = Files.size(trialFiles.get(i)) * 8 / sampled;
+                logger.info("Trial encode of {} at {}x{}: {} kbit/s over {}s",
+                        source, widths[i], heights[i], Math.round(bitrates[i] / 1000), sampled);
+            }
+            return bitrates;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during trial encode", e);
+        } catch (IOException e) {
+            logger.warn("Trial encode failed for {}", source, e);
+            return null;
+        } finally {
+            for (Path trialFile : trialFiles) {
+                try {
+                    Files.deleteIfExists(trialFile);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete trial encode: {}", trialFile, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.abrstreaming.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest low-latency playlists published on this node, for blocking
+ * playlist reload. A request for {@code _HLS_msn}/{@code _HLS_part} waits
+ * on a future that completes with the first playlist containing that part,
+ * so held requests cost no thread and no Minio reads; every publish wakes
+ * exactly the requests it satisfies.
+ *
+ * <p>Only the node encoding a rendition knows its live state. Playlists of
+ * renditions that are not live here, or have ended, complete at once.
+ */
+@Component
+public class LivePlaylists {
+
+    private final Map<String, Live> playlists = new ConcurrentHashMap<>();
+
+    /**
+     * A published playlist: {@code segments} complete media segments
+     * followed by {@code parts} parts of the segment in progress.
+     */
+    public static class Snapshot {
+        private final CachedObject playlist;
+        private final long segments;
+        private final int parts;
+
+        Snapshot(CachedObject playlist, long segments, int parts) {
+            this.playlist = playlist;
+            this.segments = segments;
+            this.parts = parts;
+        }
+
+        public CachedObject getPlaylist() {
+            return playlist;
+        }
+
+        /**
+         * Returns whether the playlist contains part {@code part} of media
+         * segment {@code msn}, or all of segment {@code msn} if part is negative.
+         */
+        boolean contains(long msn, int part) {
+            return segments > msn || (part >= 0 && segments == msn && parts > part);
+        }
+    }
+
+    private static class Waiter {
+        final long msn;
+        final int part;
+        final CompletableFuture<Snapshot> future = new CompletableFuture<>();
+
+        Waiter(long msn, int part) {
+            this.msn = msn;
+            this.part = part;
+        }
+    }
+
+    private static class Live {
+        Snapshot latest;
+        final List<Waiter> waiters = new ArrayList<>();
+    }
+
+    /**
+     * Starts tracking {@code objectName}; requests for it are held from now on.
+     */
+    public void open(String objectName) {
+        playlists.putIfAbsent(objectName, new Live());
+    }
+
+    /**
+     * Records a newly published playlist and wakes the requests it satisfies.
+     */
+    public void publish(String objectName, CachedObject playlist, long segments, int parts) {
+        Live live = playlists.get(objectName);
+        if (live == null) {
+            return;
+        }
+        Snapshot snapshot = new Snapshot(playlist, segments, parts);
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (live) {
+            live.latest = snapshot;
+            for (Iterator<Waiter> it = live.waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (snapshot.contains(waiter.msn, waiter.part)) {
+                    ready.add(waiter);
+                    it.remove();
+                }
+            }
+        }
+        for (Waiter waiter : ready) {
+            waiter.future.complete(snapshot);
+        }
+    }
+
+    /**
+     * Stops tracking {@code objectName} once its final playlist is in Minio.
+     * Held requests complete with null and read that playlist instead.
+     */
+    public void close(String objectName) {
+        Live live = playlists.remove(objectName);
+        if (live == null) {
+            return;
+        }
+        List<Waiter> waiters;
+        synchronized (live) {
+            waiters = new ArrayList<>(live.waiters);
+            live.waiters.clear();
+        }
+        for (Waiter waiter : waiters) {
+            waiter.future.complete(null);
+        }
+    }
+
+    /**
+     * Returns a future for the first playlist containing part {@code part}
+     * of segment {@code msn} (the whole segment if part is negative). It
+     * completes with null at once if {@code objectName} is not live here,
+     * or when it stops being live.
+     */
+    public CompletableFuture<Snapshot> await(String objectName, long msn, int part) {
+        Live live = playlists.get(objectName);
+        if (live == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (live) {
+            if (live.latest != null && live.latest.contains(msn, part)) {
+                return CompletableFuture.completedFuture(live.latest);
+            }
+            Waiter waiter = new Waiter(msn, part);
+            live.waiters.add(waiter);
+            // A request that times out or whose client goes away stops waiting
+            waiter.future.whenComplete((snapshot, error) -> {
+                synchronized (live) {
+                    live.waiters.remove(waiter);
+                }
+            });
+            return waiter.future;
+        }
+    }
+
+    /**
+     * Returns the next media sequence number the rendition will complete,
+     * or -1 if it is not live here.
+     */
+    public long getNextSegment(String objectName) {
+        Live live = playlists.get(objectName);
+        if (live == null) {
+            return -1;
+        }
+        synchronized (live) {
+            return live.latest == null ? 0 : live.latest.segments;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.abrstreaming.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a single ffprobe pass learned about a source: container, video and
+ * audio properties plus the keyframe index. Serialized to JSON by
+ * {@link MediaProbe} and stored next to the video's assets, so later
+ * stages and resumed jobs read it instead of probing again.
+ */
+public class MediaInfo {
+
+    private double durationSeconds;
+    private long bitRate;
+    private String formatName;
+    private int width;
+    private int height;
+    private double frameRate;
+    private String videoCodec;
+    private String videoProfile;
+    private int videoLevel;
+    private String pixelFormat;
+    private long videoBitRate;
+    private double keyframeIntervalSeconds;
+    private List<Double> keyframes = new ArrayList<>();
+    private String audioCodec;
+    private String audioProfile;
+    private int audioChannels;
+    private String audioChannelLayout;
+    private int audioSampleRate;
+    private long audioBitRate;
+
+    /** Container duration in seconds. */
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(double durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    /** Overall bit rate in bits per second, 0 if unknown. */
+    public long getBitRate() {
+        return bitRate;
+    }
+
+    public void setBitRate(long bitRate) {
+        this.bitRate = bitRate;
+    }
+
+    public String getFormatName() {
+        return formatName;
+    }
+
+    public void setFormatName(String formatName) {
+        this.formatName = formatName;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    /** Average frame rate in frames per second. */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public void setFrameRate(double frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    public String getVideoCodec() {
+        return videoCodec;
+    }
+
+    public void setVideoCodec(String videoCodec) {
+        this.videoCodec = videoCodec;
+    }
+
+    public String getVideoProfile() {
+        return videoProfile;
+    }
+
+    public void setVideoProfile(String videoProfile) {
+        this.videoProfile = videoProfile;
+    }
+
+    public int getVideoLevel() {
+        return videoLevel;
+    }
+
+    public void setVideoLevel(int videoLevel) {
+        this.videoLevel = videoLevel;
+    }
+
+    public String getPixelFormat() {
+        return pixelFormat;
+    }
+
+    public void setPixelFormat(String pixelFormat) {
+        this.pixelFormat = pixelFormat;
+    }
+
+    public long getVideoBitRate() {
+        return videoBitRate;
+    }
+
+    public void setVideoBitRate(long videoBitRate) {
+        this.videoBitRate = videoBitRate;
+    }
+
+    /** Mean distance between keyframes in seconds. */
+    public double getKeyframeIntervalSeconds() {
+        return keyframeIntervalSeconds;
+    }
+
+    public void setKeyframeIntervalSeconds(double keyframeIntervalSeconds) {
+        this.keyframeIntervalSeconds = keyframeIntervalSeconds;
+    }
+
+    /** Keyframe times in seconds from the start of the source. */
+    public List<Double> getKeyframes() {
+        return keyframes;
+    }
+
+    public void setKeyframes(List<Double> keyframes) {
+        this.keyframes = keyframes;
+    }
+
+    public boolean hasVideo() {
+        return width > 0 && height > 0;
+    }
+
+    public boolean hasAudio() {
+        return audioCodec != null;
+    }
+
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    public void setAudioCodec(String audioCodec) {
+        this.audioCodec = audioCodec;
+    }
+
+    public String getAudioProfile() {
+        return audioProfile;
+    }
+
+    public void setAudioProfile(String audioProfile) {
+        this.audioProfile = audioProfile;
+    }
+
+    public int getAudioChannels() {
+        return audioChannels;
+    }
+
+    public void setAudioChannels(int audioChannels) {
+        this.audioChannels = audioChannels;
+    }
+
+    public String getAudioChannelLayout() {
+        return audioChannelLayout;
+    }
+
+    public void setAudioChannelLayout(String audioChannelLayout) {
+        this.audioChannelLayout = audioChannelLayout;
+    }
+
+    public int getAudioSampleRate() {
+        return audioSampleRate;
+    }
+
+    public void setAudioSampleRate(int audioSampleRate) {
+        this.audioSampleRate = audioSampleRate;
+    }
+
+    public long getAudioBitRate() {
+        return audioBitRate;
+    }
+
+    public void setAudioBitRate(long audioBitRate) {
+        this.audioBitRate = audioBitRate;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.abrstreaming.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs ffprobe once per file and turns its JSON output into a
+ * {@link MediaInfo}. Packets are streamed rather than buffered, so probing
+ * an hour-long source only keeps its keyframe times in memory.
+ */
+@Component
+public class MediaProbe {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaProbe.class);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ProcessRunner processRunner;
+
+    /**
+     * Returns the metadata record stored at {@code metadataFile}, probing
+     * {@code source} and storing the result if there is none yet.
+     */
+    public MediaInfo probeSource(String source, Path metadataFile) {
+        if (Files.exists(metadataFile)) {
+            try {
+                MediaInfo info = objectMapper.readValue(metadataFile.toFile(), MediaInfo.class);
+                logger.debug("Loaded media metadata from {}", metadataFile);
+                return info;
+            } catch (IOException e) {
+                logger.warn("Unreadable media metadata at {}, probing again", metadataFile, e);
+            }
+        }
+        MediaInfo info = probe(source);
+        Path temp = metadataFile.resolveSibling(metadataFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(metadataFile.getParent());
+            objectMapper.writeValue(temp.toFile(), info);
+            Files.move(temp, metadataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Only costs a second probe if the job is resumed
+            logger.warn("Failed to store media metadata at {}", metadataFile, e);
+        }
+        return info;
+    }
+
+    /**
+     * Probes {@code path} with a single ffprobe process. Fields ffprobe could
+     * not determine are left at their defaults.
+     */
+    public MediaInfo probe(String path) {
+        logger.debug("Probing media: {}", path);
+        ProbeOutput output = new ProbeOutput();
+        try {
+            output = processRunner.read(Arrays.asList(
+                "ffprobe", "-v", "error", "-print_format", "json", "-show_format", "-show_streams",
+                "-show_entries", "packet=stream_index,pts_time,flags", path
+            ), this::parseOutput);
+        } catch (Exception e) {
+            logger.error("Error probing media: {}", path, e);
+        }
+        Map<Integer, List<Double>> keyframes = output.keyframes;
+        JsonNode streams = output.streams;
+        JsonNode format = output.format;
+
+        MediaInfo info = new MediaInfo();
+        double startTime = 0;
+        if (format != null) {
+            startTime = format.path("start_time").asDouble();
+            info.setDurationSeconds(format.path("duration").asDouble());
+            info.setBitRate(format.path("bit_rate").asLong());
+            info.setFormatName(format.path("format_name").asText(null));
+        }
+        if (streams != null) {
+            for (JsonNode stream : streams) {
+                String type = stream.path("codec_type").asText();
+                if (type.equals("video") && !info.hasVideo() && !isAttachedPicture(stream)) {
+                    info.setWidth(stream.path("width").asInt());
+                    info.setHeight(stream.path("height").asInt());
+                    info.setFrameRate(parseRate(stream.path("avg_frame_rate").asText()));
+                    info.setVideoCodec(stream.path("codec_name").asText(null));
+                    info.setVideoProfile(stream.path("profile").asText(null));
+                    info.setVideoLevel(stream.path("level").asInt());
+                    info.setPixelFormat(stream.path("pix_fmt").asText(null));
+                    info.setVideoBitRate(stream.path("bit_rate").asLong());
+                    List<Double> times = keyframes.getOrDefault(stream.path("index").asInt(), Collections.emptyList());
+                    setKeyframes(info, times, startTime);
+                } else if (type.equals("audio") && !info.hasAudio()) {
+                    info.setAudioCodec(stream.path("codec_name").asText(null));
+                    info.setAudioProfile(stream.path("profile").asText(null));
+                    info.setAudioChannels(stream.path("channels").asInt());
+                    info.setAudioChannelLayout(stream.path("channel_layout").asText(null));
+                    info.setAudioSampleRate(stream.path("sample_rate").asInt());
+                    info.setAudioBitRate(stream.path("bit_rate").asLong());
+                }
+            }
+        }
+        logger.info("Probed {}: {}x{} {} @ {} fps, {}s, audio {}", path, info.getWidth(), info.getHeight(),
+                info.getVideoCodec(), info.getFrameRate(), info.getDurationSeconds(), info.getAudioCodec());
+        return info;
+    }
+
+    /**
+     * Returns the RFC 6381 codecs string for an HLS {@code CODECS} attribute,
+     * or null if a codec is not one HLS players can be told about.
+     */
+    public String getCodecs(MediaInfo info) {
+        List<String> codecs = new ArrayList<>();
+        if (info.hasVideo()) {
+            String profile = getAvcProfile(info.getVideoProfile());
+            if (!"h264".equals(info.getVideoCodec()) || profile == null || info.getVideoLevel() <= 0) {
+                return null;
+            }
+            codecs.add(String.format("avc1.%s%02X", profile, info.getVideoLevel()));
+        }
+        if (info.hasAudio()) {
+            switch (info.getAudioCodec()) {
+                case "aac":
+                    if ("HE-AACv2".equals(info.getAudioProfile())) {
+                        codecs.add("mp4a.40.29");
+                    } else if ("HE-AAC".equals(info.getAudioProfile())) {
+                        codecs.add("mp4a.40.5");
+                    } else {
+                        codecs.add("mp4a.40.2");
+                    }
+                    break;
+                case "mp3":
+                    codecs.add("mp4a.40.34");
+                    break;
+                case "ac3":
+                    codecs.add("ac-3");
+                    break;
+                case "eac3":
+                    codecs.add("ec-3");
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return codecs.isEmpty() ? null : String.join(",", codecs);
+    }
+
+    /**
+     * Maps an ffprobe H.264 profile name to profile_idc and constraint flags
+     * as hex, the way x264 signals them.
+     */
+    private static String getAvcProfile(String profile) {
+        if (profile == null) {
+            return null;
+        }
+        switch (profile) {
+            case "Constrained Baseline":
+            case "Baseline": return "42C0";
+            case "Main": return "4D40";
+            case "High": return "6400";
+            case "High 10": return "6E00";
+            case "High 4:2:2": return "7A00";
+            case "High 4:4:4 Predictive": return "F400";
+            default: return null;
+        }
+    }
+
+    private static void setKeyframes(MediaInfo info, List<Double> times, double startTime) {
+        // Packets are in decode order and carry the container start time;
+        // the index is kept sorted and relative to the start of the source
+        List<Double> keyframes = new ArrayList<>(times.size());
+        for (double time : times) {
+            keyframes.add(time - startTime);
+        }
+        Collections.sort(keyframes);
+        info.setKeyframes(keyframes);
+        if (keyframes.size() > 1) {
+            info.setKeyframeIntervalSeconds(
+                    (keyframes.get(keyframes.size() - 1) - keyframes.get(0)) / (keyframes.size() - 1));
+        }
+    }
+
+    private static boolean isAttachedPicture(JsonNode stream) {
+        return stream.path("disposition").path("attached_pic").asInt() == 1;
+    }
+
+    private static double parseRate(String rate) {
+        String[] parts = rate.split("/");
+        try {
+            double numerator = Double.parseDouble(parts[0]);
+            double denominator = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+            return denominator == 0 ? 0 : numerator / denominator;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static class ProbeOutput {
+        final Map<Integer, List<Double>> keyframes = new HashMap<>();
+        JsonNode streams;
+        JsonNode format;
+    }
+
+    private ProbeOutput parseOutput(InputStream stdout) throws IOException {
+        ProbeOutput output = new ProbeOutput();
+        try (JsonParser parser = objectMapper.createParser(stdout)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected ffprobe output");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("packets".equals(field)) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        JsonNode packet = parser.readValueAsTree();
+                        if (packet.path("flags").asText().startsWith("K") && packet.has("pts_time")) {
+                            output.keyframes.computeIfAbsent(packet.path("stream_index").asInt(), k -> new ArrayList<>())
+                                    .add(packet.path("pts_time").asDouble());
+                        }
+                    }
+                } else if ("streams".equals(field)) {
+                    output.streams = parser.readValueAsTree();
+                } else if ("format".equals(field)) {
+                    output.format = parser.readValueAsTree();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.abrstreaming.service;
+
+import io.minio.MinioAsyncClient;
+import io.minio.messages.Part;
+
+import java.io.RandomAccessFile;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Exposes the S3 multipart calls that {@link io.minio.MinioClient} keeps
+ * protected, so an object can be assembled from parts that arrive over
+ * separate requests. Parts are read from a {@link RandomAccessFile}
+ * positioned at the part start, which the SDK streams without buffering the
+ * part in memory.
+ */
+public class MinioMultipartClient extends MinioAsyncClient {
+
+    public MinioMultipartClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public String createUpload(String bucket, String object) throws Exception {
+        return await(createMultipartUploadAsync(bucket, null, object, null, null)).result().uploadId();
+    }
+
+    /**
+     * Uploads {@code length} bytes from the current position of {@code file}
+     * and returns the part's ETag.
+     */
+    public String uploadPart(String bucket, String object, String uploadId, int partNumber,
+                             RandomAccessFile file, long length) throws Exception {
+        return await(uploadPartAsync(bucket, null, object, file, length, uploadId, partNumber, null, null)).etag();
+    }
+
+    /**
+     * Assembles the object from {@code parts} and returns its ETag.
+     */
+    public String completeUpload(String bucket, String object, String uploadId, Part[] parts) throws Exception {
+        return await(completeMultipartUploadAsync(bucket, null, object, uploadId, parts, null, null)).etag();
+    }
+
+    public void abortUpload(String bucket, String object, String uploadId) throws Exception {
+        await(abortMultipartUploadAsync(bucket, null, object, uploadId, null, null));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
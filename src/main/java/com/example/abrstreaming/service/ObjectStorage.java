@@ -0,0 +1,323 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.ServerException;
+import io.minio.messages.Part;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All writes to Minio go through here. Every PUT, whole-object or part,
+ * holds a permit of a global limiter ({@code minio.upload.max-concurrent})
+ * so bulk ingest and many parallel renditions cannot flood Minio, and is
+ * retried with full-jitter exponential backoff on errors that are worth
+ * retrying: network failures, 5xx responses and throttling. PUTs of the same
+ * bytes to the same key are idempotent, so a retry after an ambiguous failure
+ * is safe. Files above {@code minio.upload.multipart-threshold} are uploaded
+ * as multipart objects with several parts in flight at once; each part is
+ * read from its own file handle, so nothing is buffered in memory.
+ */
+@Component
+public class ObjectStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(ObjectStorage.class);
+    // S3 rejects multipart parts below 5 MiB, except for the last one
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final Set<String> RETRYABLE_ERROR_CODES = Set.of(
+            "InternalError", "ServiceUnavailable", "SlowDown", "RequestTimeout", "XMinioServerNotInitialized");
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private MinioMultipartClient minioMultipartClient;
+
+    @Autowired
+    private ThreadPoolTaskExecutor multipartUploadExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${minio.bucket}")
+    private String bucket;
+
+    @Value("${minio.upload.max-concurrent:16}")
+    private int maxConcurrentUploads;
+
+    @Value("${minio.upload.multipart-threshold:67108864}")
+    private long multipartThreshold;
+
+    @Value("${minio.upload.part-size:16777216}")
+    private long partSize;
+
+    /** Parts of one file uploaded at once. */
+    @Value("${minio.upload.part-concurrency:4}")
+    private int partConcurrency;
+
+    @Value("${minio.retry.max-attempts:4}")
+    private int maxAttempts;
+
+    @Value("${minio.retry.base-delay-ms:200}")
+    private long baseDelayMs;
+
+    @Value("${minio.retry.max-delay-ms:5000}")
+    private long maxDelayMs;
+
+    private Semaphore uploadPermits;
+
+    @FunctionalInterface
+    private interface StorageCall<T> {
+        T call() throws Exception;
+    }
+
+    @PostConstruct
+    void init() {
+        uploadPermits = new Semaphore(maxConcurrentUploads, true);
+        partSize = Math.max(MIN_PART_SIZE, partSize);
+        meterRegistry.gauge("abr.minio.uploads.waiting", uploadPermits, Semaphore::getQueueLength);
+    }
+
+    /**
+     * Uploads {@code file} as {@code objectName} and returns its ETag.
+     */
+    public String putFile(Path file, String objectName) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading size of " + file, e);
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String operation = size > multipartThreshold ? "multipart" : "put";
+        String outcome = "error";
+        try {
+            String etag = size > multipartThreshold
+                    ? putMultipart(file, size, objectName)
+                    : withRetry("put", objectName, () -> {
+                        // A fresh stream per attempt; a failed attempt may have consumed part of it
+                        try (InputStream stream = Files.newInputStream(file)) {
+                            return minioClient.putObject(PutObjectArgs.builder()
+                                    .bucket(bucket)
+                                    .object(objectName)
+                                    .stream(stream, size, -1)
+                                    .build()).etag();
+                        }
+                    });
+            outcome = "success";
+            logger.debug("Uploaded {} ({} bytes) to Minio as {}", file, size, objectName);
+            return etag;
+        } finally {
+            recordUpload(sample, operation, outcome, size);
+        }
+    }
+
+    /**
+     * Uploads {@code content} as {@code objectName} and returns its ETag.
+     */
+    public String putBytes(byte[] content, String objectName) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            String etag = withRetry("put", objectName, () -> minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(objectName)
+                    .stream(new ByteArrayInputStream(content), content.length, -1)
+                    .build()).etag());
+            outcome = "success";
+            return etag;
+        } finally {
+            recordUpload(sample, "put", outcome, content.length);
+        }
+    }
+
+    public String createMultipartUpload(String objectName) {
+        return withRetry("create-multipart", objectName,
+                () -> minioMultipartClient.createUpload(bucket, objectName));
+    }
+
+    /**
+     * Uploads {@code length} bytes of {@code file} from {@code offset} as part
+     * {@code partNumber} and returns the part's ETag.
+     */
+    public String uploadPart(String objectName, String uploadId, int partNumber, Path file, long offset,
+                             long length) {
+        return withRetry("part", objectName, () -> {
+            try (RandomAccessFile source = new RandomAccessFile(file.toFile(), "r")) {
+                source.seek(offset);
+                return minioMultipartClient.uploadPart(bucket, objectName, uploadId, partNumber, source, length);
+            }
+        });
+    }
+
+    /**
+     * Not retried: if a completion whose response was lost had succeeded,
+     * repeating it would fail on the now unknown upload id.
+     */
+    public String completeMultipartUpload(String objectName, String uploadId, Part[] parts) {
+        try {
+            return minioMultipartClient.completeUpload(bucket, objectName, uploadId, parts);
+        } catch (Exception e) {
+            logger.error("Error completing multipart upload in Minio: {}", objectName, e);
+            throw new RuntimeException("Error completing multipart upload in Minio", e);
+        }
+    }
+
+    public void abortMultipartUpload(String objectName, String uploadId) {
+        try {
+            minioMultipartClient.abortUpload(bucket, objectName, uploadId);
+        } catch (Exception e) {
+            throw new RuntimeException("Error aborting multipart upload of " + objectName, e);
+        }
+    }
+
+    public void removeObject(String objectName) {
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucket).object(objectName).build());
+        } catch (Exception e) {
+            throw new RuntimeException("Error removing " + objectName + " from Minio", e);
+        }
+    }
+
+    private String putMultipart(Path file, long size, String objectName) {
+        String uploadId = createMultipartUpload(objectName);
+        int partCount = (int) ((size + partSize - 1) / partSize);
+        // Bounds the parts of this file in flight; the global limiter bounds all uploads
+        Semaphore inFlight = new Semaphore(partConcurrency);
+        List<CompletableFuture<Part>> parts = new ArrayList<>(partCount);
+        try {
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                long offset = i * partSize;
+                long length = Math.min(partSize, size - offset);
+                inFlight.acquire();
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return new Part(partNumber, uploadPart(objectName, uploadId, partNumber, file, offset, length));
+                    } finally {
+                        inFlight.release();
+                    }
+                }, multipartUploadExecutor));
+            }
+            Part[] completed = new Part[partCount];
+            for (int i = 0; i < partCount; i++) {
+                completed[i] = parts.get(i).join();
+            }
+            String etag = completeMultipartUpload(objectName, uploadId, completed);
+            logger.debug("Uploaded {} to Minio in {} parts", objectName, partCount);
+            return etag;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortQuietly(objectName, uploadId);
+            throw new RuntimeException("Interrupted while uploading " + objectName, e);
+        } catch (CompletionException e) {
+            abortQuietly(objectName, uploadId);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } catch (RuntimeException e) {
+            abortQuietly(objectName, uploadId);
+            throw e;
+        }
+    }
+
+    private void abortQuietly(String objectName, String uploadId) {
+        try {
+            abortMultipartUpload(objectName, uploadId);
+        } catch (RuntimeException e) {
+            // Minio expires incomplete multipart uploads on its own
+            logger.warn("Failed to abort multipart upload of {}", objectName, e);
+        }
+    }
+
+    /**
+     * Runs {@code call} holding an upload permit, retrying retryable
+     * failures. The permit is released while backing off so a struggling
+     * Minio sees fewer requests, not the same number later.
+     */
+    private <T> T withRetry(String operation, String objectName, StorageCall<T> call) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                uploadPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to upload " + objectName, e);
+            }
+            Exception failure;
+            try {
+                return call.call();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                uploadPermits.release();
+            }
+            if (attempt >= maxAttempts || !isRetryable(failure)) {
+                logger.error("Error uploading to Minio: {} ({} after {} attempts)", objectName, operation, attempt,
+                        failure);
+                throw new RuntimeException("Error uploading " + objectName + " to Minio", failure);
+            }
+            long delay = ThreadLocalRandom.current().nextLong(
+                    Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20)) + 1);
+            logger.warn("Retrying {} of {} in {} ms after attempt {} failed: {}",
+                    operation, objectName, delay, attempt, failure.toString());
+            meterRegistry.counter("abr.minio.retries", "operation", operation).increment();
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while retrying upload of " + objectName, failure);
+            }
+        }
+    }
+
+    private static boolean isRetryable(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException || cause instanceof ServerException) {
+            return true;
+        }
+        if (cause instanceof ErrorResponseException) {
+            ErrorResponseException error = (ErrorResponseException) cause;
+            return (error.response() != null && error.response().code() >= 500)
+                    || RETRYABLE_ERROR_CODES.contains(error.errorResponse().code());
+        }
+        return false;
+    }
+
+    private void recordUpload(Timer.Sample sample, String operation, String outcome, long bytes) {
+        sample.stop(Timer.builder("abr.minio.uploads")
+                .description("Object uploads to Minio, including retries")
+                .tags("operation", operation, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        if ("success".equals(outcome)) {
+            meterRegistry.counter("abr.minio.uploaded.bytes").increment(bytes);
+        }
+    }
+}
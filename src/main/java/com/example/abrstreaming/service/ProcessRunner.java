@@ -0,0 +1,475 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs ffmpeg and ffprobe. Commands are passed to {@link ProcessBuilder} as
+ * argument lists, so paths are never re-split, and both output pipes are
+ * drained on their own threads so a verbose process cannot block on a full
+ * pipe. ffmpeg is run with {@code -progress pipe:1}; its progress is parsed
+ * into {@link FfmpegProgress} events and published to listeners once a
+ * second.
+ *
+ * <p>A watchdog kills a process whose step runs longer than
+ * {@code processing.step-timeout-seconds}, and an ffmpeg step whose output
+ * time has not advanced for {@code processing.stall-timeout-seconds}, so a
+ * hung encode fails its job instead of holding a worker and its cores
+ * forever. {@link #cancel(String)} kills every process of a job and fails
+ * any step it starts afterwards.
+ */
+@Component
+public class ProcessRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessRunner.class);
+    private static final int STDERR_TAIL_LINES = 20;
+    private static final long WATCHDOG_INTERVAL_MS = 1000;
+    private static final String OUTCOME_SUCCESS = "success";
+    private static final String OUTCOME_FAILED = "failed";
+    private static final String OUTCOME_TIMEOUT = "timeout";
+    private static final String OUTCOME_STALLED = "stalled";
+    private static final String OUTCOME_CANCELLED = "cancelled";
+
+    /**
+     * Reads a process's standard output. Runs on the calling thread; the
+     * process is killed if the reader throws.
+     */
+    @FunctionalInterface
+    public interface OutputReader<T> {
+        T read(InputStream stdout) throws IOException;
+    }
+
+    public interface Listener {
+        void onProgress(FfmpegProgress progress);
+
+        /** Called once when the job the listener subscribed to has ended. */
+        void onJobFinished();
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${processing.step-timeout-seconds:14400}")
+    private long stepTimeoutSeconds;
+
+    @Value("${processing.stall-timeout-seconds:120}")
+    private long stallTimeoutSeconds;
+
+    @Value("${processing.probe-timeout-seconds:120}")
+    private long probeTimeoutSeconds;
+
+    private final Set<RunningProcess> running = ConcurrentHashMap.newKeySet();
+    private final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private final AtomicBoolean publishing = new AtomicBoolean();
+    private ScheduledExecutorService watchdog;
+    private ExecutorService publisher;
+
+    @PostConstruct
+    void start() {
+        Gauge.builder("abr.ffmpeg.active", running, Set::size)
+                .description("Running ffmpeg and ffprobe processes")
+                .register(meterRegistry);
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "process-watchdog"));
+        // Listeners write to HTTP clients; a slow one must not delay the
+        // watchdog, so events go out on their own thread
+        publisher = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "progress-publisher"));
+        watchdog.scheduleWithFixedDelay(this::check, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        watchdog.shutdownNow();
+        publisher.shutdownNow();
+        for (RunningProcess process : running) {
+            process.kill(OUTCOME_CANCELLED, "application shutdown");
+        }
+    }
+
+    /**
+     * Runs an ffmpeg command for {@code videoId} and waits for it. The
+     * {@code step} names the invocation in progress events and errors;
+     * {@code durationSeconds} is the media time it writes, used for percent
+     * and ETA (0 if unknown). Throws if the process fails, times out,
+     * stalls or is cancelled.
+     */
+    public void runFfmpeg(String videoId, String step, List<String> command, double durationSeconds) {
+        List<String> arguments = new ArrayList<>(command);
+        // Progress as key=value blocks on stdout; no interactive stdin, no stats on stderr
+        arguments.addAll(1, List.of("-nostdin", "-nostats", "-progress", "pipe:1"));
+        RunningProcess process = start(videoId, step, arguments, stepTimeoutSeconds, stallTimeoutSeconds);
+        process.progress = new FfmpegProgress(videoId, step, durationSeconds);
+        try {
+            process.drain(process.process.getInputStream(), process::parseProgressLine, "stdout");
+            process.await();
+        } finally {
+            running.remove(process);
+            recordRun(process);
+        }
+        process.progress.setFinished(true);
+        publish(List.of(process.progress.copy()));
+    }
+
+    /**
+     * Runs a command whose standard output is the result, e.g. ffprobe, and
+     * returns what {@code reader} made of it.
+     */
+    public <T> T read(List<String> command, OutputReader<T> reader) {
+        RunningProcess process = start(null, command.get(0), command, probeTimeoutSeconds, 0);
+        try {
+            T result;
+            try (InputStream stdout = process.process.getInputStream()) {
+                result = reader.read(stdout);
+            } catch (IOException e) {
+                process.kill(OUTCOME_FAILED, "unreadable output");
+                throw new RuntimeException("Error reading output of " + command.get(0) + ": " + e.getMessage(), e);
+            }
+            process.await();
+            return result;
+        } finally {
+            if (process.process.isAlive()) {
+                process.kill(OUTCOME_FAILED, "output not consumed");
+            }
+            running.remove(process);
+            recordRun(process);
+        }
+    }
+
+    /**
+     * Kills every process of {@code videoId} and makes its later steps fail
+     * until {@link #jobFinished(String)} is called.
+     */
+    public void cancel(String videoId) {
+        cancelled.add(videoId);
+        for (RunningProcess process : running) {
+            if (videoId.equals(process.videoId)) {
+                process.kill(OUTCOME_CANCELLED, "job cancelled");
+            }
+        }
+        logger.info("Cancelled processing for videoId: {}", videoId);
+    }
+
+    public boolean isCancelled(String videoId) {
+        return cancelled.contains(videoId);
+    }
+
+    /**
+     * Clears the cancellation flag of a job that has ended and tells its
+     * listeners.
+     */
+    public void jobFinished(String videoId) {
+        cancelled.remove(videoId);
+        List<Listener> subscribed = listeners.remove(videoId);
+        if (subscribed != null) {
+            publisher.execute(() -> subscribed.forEach(this::notifyFinished));
+        }
+    }
+
+    /**
+     * Returns the latest progress of every step of {@code videoId} that is
+     * running now.
+     */
+    public List<FfmpegProgress> getProgress(String videoId) {
+        List<FfmpegProgress> progress = new ArrayList<>();
+        for (RunningProcess process : running) {
+            if (videoId.equals(process.videoId) && process.progress != null) {
+                progress.add(process.progress.copy());
+            }
+        }
+        return progress;
+    }
+
+    public void subscribe(String videoId, Listener listener) {
+        listeners.computeIfAbsent(videoId, id -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void unsubscribe(String videoId, Listener listener) {
+        listeners.computeIfPresent(videoId, (id, subscribed) -> {
+            subscribed.remove(listener);
+            return subscribed.isEmpty() ? null : subscribed;
+        });
+    }
+
+    private RunningProcess start(String videoId, String step, List<String> command,
+                                 long timeoutSeconds, long stallSeconds) {
+        if (videoId != null && cancelled.contains(videoId)) {
+            throw new RuntimeException("Processing of " + videoId + " was cancelled");
+        }
+        String commandLine = String.join(" ", command);
+        logger.debug("Executing command: {}", commandLine);
+        Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException e) {
+            logger.error("Error executing command: {}. Error: {}", commandLine, e.getMessage(), e);
+            throw new RuntimeException("Error executing command: " + commandLine, e);
+        }
+        RunningProcess runningProcess = new RunningProcess(videoId, step, commandLine, process,
+                timeoutSeconds, stallSeconds);
+        running.add(runningProcess);
+        // cancel() may have run between the check above and the registration
+        if (videoId != null && cancelled.contains(videoId)) {
+            runningProcess.kill(OUTCOME_CANCELLED, "job cancelled");
+        }
+        runningProcess.drain(process.getErrorStream(), runningProcess::recordStderrLine, "stderr");
+        return runningProcess;
+    }
+
+    /**
+     * Times the run by step and outcome. For ffmpeg steps the speed ratio,
+     * media time written per second of wall time, shows how encode
+     * throughput holds up under load.
+     */
+    private void recordRun(RunningProcess process) {
+        int dash = process.step.indexOf('-');
+        String stage = dash < 0 ? process.step : process.step.substring(0, dash);
+        long elapsedMillis = System.currentTimeMillis() - process.startedAt;
+        Timer.builder("abr.ffmpeg.runs")
+                .description("ffmpeg and ffprobe invocations")
+                .tags("step", stage, "outcome", process.outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(elapsedMillis, TimeUnit.MILLISECONDS);
+        FfmpegProgress progress = process.progress;
+        if (progress != null && OUTCOME_SUCCESS.equals(process.outcome) && elapsedMillis > 0) {
+            double mediaSeconds = progress.getDurationSeconds() > 0
+                    ? progress.getDurationSeconds() : progress.getOutTimeSeconds();
+            if (mediaSeconds > 0) {
+                DistributionSummary.builder("abr.ffmpeg.speed")
+                        .description("Media seconds encoded per second of wall time")
+                        .tag("step", stage)
+                        .register(meterRegistry)
+                        .record(mediaSeconds * 1000 / elapsedMillis);
+            }
+        }
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        List<FfmpegProgress> snapshot = new ArrayList<>();
+        for (RunningProcess process : running) {
+            if (process.timeoutSeconds > 0 && now - process.startedAt > process.timeoutSeconds * 1000) {
+                process.kill(OUTCOME_TIMEOUT, "timed out after " + process.timeoutSeconds + "s");
+            } else if (process.stallSeconds > 0 && now - process.lastAdvance > process.stallSeconds * 1000) {
+                process.kill(OUTCOME_STALLED, "stalled, no progress for " + process.stallSeconds + "s");
+            }
+            if (process.progress != null && process.videoId != null && listeners.containsKey(process.videoId)) {
+                snapshot.add(process.progress.copy());
+            }
+        }
+        publish(snapshot);
+    }
+
+    private void publish(List<FfmpegProgress> events) {
+        if (events.isEmpty() || listeners.isEmpty()) {
+            return;
+        }
+        // Skip a tick rather than queue behind a slow client; the next one
+        // carries newer progress anyway
+        if (!publishing.compareAndSet(false, true)) {
+            return;
+        }
+        publisher.execute(() -> {
+            try {
+                for (FfmpegProgress event : events) {
+                    for (Listener listener : listeners.getOrDefault(event.getVideoId(), List.of())) {
+                        try {
+                            listener.onProgress(event);
+                        } catch (RuntimeException e) {
+                            logger.debug("Progress listener failed, unsubscribing", e);
+                            unsubscribe(event.getVideoId(), listener);
+                        }
+                    }
+                }
+            } finally {
+                publishing.set(false);
+            }
+        });
+    }
+
+    private void notifyFinished(Listener listener) {
+        try {
+            listener.onJobFinished();
+        } catch (RuntimeException e) {
+            logger.debug("Progress listener failed on job end", e);
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            // ffmpeg reports N/A until it knows a value
+            return 0;
+        }
+    }
+
+    private static class RunningProcess {
+        final String videoId;
+        final String step;
+        final String commandLine;
+        final Process process;
+        final long timeoutSeconds;
+        final long stallSeconds;
+        final long startedAt = System.currentTimeMillis();
+        final Deque<String> stderrTail = new ArrayDeque<>();
+        final List<Thread> drainers = new ArrayList<>(2);
+        volatile long lastAdvance = startedAt;
+        volatile String killReason;
+        volatile String outcome = OUTCOME_FAILED;
+        // Written by the stdout drainer; readers take copies
+        volatile FfmpegProgress progress;
+        private long lastFrame = -1;
+        private double lastOutTime = -1;
+
+        RunningProcess(String videoId, String step, String commandLine, Process process,
+                       long timeoutSeconds, long stallSeconds) {
+            this.videoId = videoId;
+            this.step = step;
+            this.commandLine = commandLine;
+            this.process = process;
+            this.timeoutSeconds = timeoutSeconds;
+            this.stallSeconds = stallSeconds;
+        }
+
+        void drain(InputStream stream, Consumer<String> lineHandler, String name) {
+            Thread drainer = daemon(() -> {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lineHandler.accept(line);
+                    }
+                } catch (IOException e) {
+                    // The stream closes when the process is killed
+                    logger.trace("Stopped reading {} of {}", name, step, e);
+                }
+            }, "process-" + name + "-" + process.pid());
+            drainers.add(drainer);
+            drainer.start();
+        }
+
+        void recordStderrLine(String line) {
+            logger.debug("[{}] {}", step, line);
+            synchronized (stderrTail) {
+                if (stderrTail.size() == STDERR_TAIL_LINES) {
+                    stderrTail.removeFirst();
+                }
+                stderrTail.addLast(line);
+            }
+        }
+
+        /**
+         * Handles one line of ffmpeg's {@code -progress} output. Values
+         * accumulate until the {@code progress=} line that ends each block.
+         */
+        void parseProgressLine(String line) {
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                return;
+            }
+            String key = line.substring(0, equals).trim();
+            String value = line.substring(equals + 1).trim();
+            FfmpegProgress current = progress;
+            switch (key) {
+                case "frame":
+                    current.setFrame((long) parseDouble(value));
+                    break;
+                case "fps":
+                    current.setFps(parseDouble(value));
+                    break;
+                case "speed":
+                    current.setSpeed(parseDouble(value.endsWith("x") ? value.substring(0, value.length() - 1) : value));
+                    break;
+                case "out_time_us":
+                    current.setOutTimeSeconds(parseDouble(value) / 1_000_000);
+                    break;
+                case "progress":
+                    current.setUpdatedAt(Instant.now());
+                    if (current.getFrame() != lastFrame || current.getOutTimeSeconds() != lastOutTime) {
+                        lastFrame = current.getFrame();
+                        lastOutTime = current.getOutTimeSeconds();
+                        lastAdvance = System.currentTimeMillis();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void kill(String killOutcome, String reason) {
+            if (killReason == null) {
+                outcome = killOutcome;
+                killReason = reason;
+                logger.warn("Killing {} ({}): {}", step, videoId != null ? videoId : commandLine, reason);
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+        }
+
+        void await() {
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+                for (Thread drainer : drainers) {
+                    drainer.join(WATCHDOG_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                kill(OUTCOME_CANCELLED, "interrupted");
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while running " + step, e);
+            }
+            if (killReason != null) {
+                throw new RuntimeException(step + " " + killReason);
+            }
+            if (exitCode != 0) {
+                String tail;
+                String lastLine;
+                synchronized (stderrTail) {
+                    tail = String.join("\n", stderrTail);
+                    lastLine = stderrTail.peekLast();
+                }
+                logger.error("Command failed with exit code: {}. Command: {}\n{}", exitCode, commandLine, tail);
+                throw new RuntimeException(step + " failed with exit code " + exitCode
+                        + (lastLine == null ? "" : ": " + lastLine));
+            }
+            outcome = OUTCOME_SUCCESS;
+            logger.debug("Command completed successfully with exit code: {}", exitCode);
+        }
+    }
+}
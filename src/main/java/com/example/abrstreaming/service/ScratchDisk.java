@@ -0,0 +1,133 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Budget for the working sets jobs write under {@code output/}. Before a
+ * job starts encoding it reserves an estimate of what it will write,
+ * derived from the probed duration and bit rate, and waits while the
+ * reservations of running jobs would exceed {@code ingest.scratch.max-bytes}
+ * or leave less than {@code ingest.scratch.min-free-bytes} free on the
+ * disk. A job that needs more than the whole budget runs alone rather than
+ * never. Reservations are released when the job ends and its working set is
+ * deleted.
+ */
+@Component
+public class ScratchDisk {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScratchDisk.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${ingest.scratch.max-bytes:53687091200}")
+    private long maxBytes;
+
+    @Value("${ingest.scratch.min-free-bytes:1073741824}")
+    private long minFreeBytes;
+
+    @Value("${ingest.scratch.output-factor:2.0}")
+    private double outputFactor;
+
+    private final Map<String, Long> reservations = new LinkedHashMap<>();
+    private long reservedBytes;
+    private FileStore fileStore;
+
+    @PostConstruct
+    void init() throws IOException {
+        Path outputPath = Paths.get(System.getProperty("user.dir"), "output");
+        Files.createDirectories(outputPath);
+        fileStore = Files.getFileStore(outputPath);
+        Gauge.builder("abr.scratch.reserved", this, disk -> disk.getStats().get("reservedBytes"))
+                .description("Scratch disk reserved by running jobs")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("abr.scratch.usable", this, disk -> disk.getStats().get("usableBytes"))
+                .description("Usable space left on the scratch disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Estimates the bytes a job writes besides its source: the ladder and
+     * any intermediate files, as {@code ingest.scratch.output-factor} times
+     * the source's media bytes. Falls back to the source file size when the
+     * probe found no duration or bit rate.
+     */
+    public long estimate(MediaInfo media, long sourceBytes) {
+        long mediaBytes = sourceBytes;
+        if (media.getDurationSeconds() > 0 && media.getBitRate() > 0) {
+            mediaBytes = (long) (media.getDurationSeconds() * media.getBitRate() / 8);
+        }
+        return (long) Math.ceil(mediaBytes * outputFactor);
+    }
+
+    /**
+     * Reserves {@code bytes} for {@code videoId}, waiting until they fit.
+     */
+    public void reserve(String videoId, long bytes) throws InterruptedException {
+        synchronized (this) {
+            if (!fits(bytes)) {
+                logger.info("videoId: {} waiting for {} bytes of scratch disk ({} reserved)",
+                        videoId, bytes, reservedBytes);
+            }
+            while (!fits(bytes)) {
+                // Released reservations notify; free space also changes as
+                // other files are deleted, so check it again periodically
+                wait(10_000);
+            }
+            reservations.merge(videoId, bytes, Long::sum);
+            reservedBytes += bytes;
+        }
+        logger.debug("Reserved {} bytes of scratch disk for videoId: {}", bytes, videoId);
+    }
+
+    public synchronized void release(String videoId) {
+        Long bytes = reservations.remove(videoId);
+        if (bytes != null) {
+            reservedBytes -= bytes;
+            notifyAll();
+        }
+    }
+
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("reservedBytes", reservedBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("usableBytes", usableSpace());
+        stats.put("jobs", (long) reservations.size());
+        return stats;
+    }
+
+    private boolean fits(long bytes) {
+        if (reservations.isEmpty()) {
+            return true;
+        }
+        // Reserved space of running jobs is partly written already, so this
+        // is conservative
+        return reservedBytes + bytes <= maxBytes && usableSpace() - bytes >= minFreeBytes;
+    }
+
+    private long usableSpace() {
+        try {
+            return fileStore.getUsableSpace();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.abrstreaming.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.MinioClient;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache for segment and playlist bytes in front of Minio. Each
+ * entry keeps the object's ETag and Last-Modified time for HTTP validation.
+ *
+ * <p>Entries are held in direct ByteBuffers so cached media does not count
+ * against the heap or lengthen GC pauses, and are evicted in LRU order once
+ * their total size exceeds {@code cache.memory.max-bytes}. Concurrent misses
+ * for the same object share a single Minio fetch. Segments are immutable once
+ * published and never expire; playlists can still change while a video is
+ * being published progressively, so they expire after a short TTL.
+ *
+ * <p>Segments fetched from Minio are also written to the
+ * {@link DiskSegmentCache}, which callers check between this cache and Minio.
+ * The miss counter therefore counts Minio fetches.
+ *
+ * <p>Hits, misses, evictions and size are exported as {@code abr.cache.*}
+ * meters with {@code tier=memory}, and every Minio call made on the
+ * playback path is timed as {@code abr.minio.requests}.
+ */
+@Component
+public class SegmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentCache.class);
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private DiskSegmentCache diskSegmentCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${minio.bucket}")
+    private String bucket;
+
+    @Value("${cache.memory.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${cache.memory.playlist-ttl-ms:2000}")
+    private long playlistTtlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, CompletableFuture<CachedObject>> inFlight = new ConcurrentHashMap<>();
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    void registerMetrics() {
+        FunctionCounter.builder("abr.cache.requests", hits, AtomicLong::get)
+                .tags("tier", "memory", "result", "hit").register(meterRegistry);
+        FunctionCounter.builder("abr.cache.requests", misses, AtomicLong::get)
+                .tags("tier", "memory", "result", "miss").register(meterRegistry);
+        FunctionCounter.builder("abr.cache.evictions", evictions, AtomicLong::get)
+                .tag("tier", "memory").register(meterRegistry);
+        Gauge.builder("abr.cache.size", this, cache -> cache.getStats().get("bytes"))
+                .tag("tier", "memory").baseUnit("bytes").register(meterRegistry);
+    }
+
+    private static class Entry {
+        final CachedObject object;
+        final long size;
+        final long expiresAt;
+
+        Entry(CachedObject object, long expiresAt) {
+            this.object = object;
+            this.size = object.getLength();
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Returns the object, fetching it from Minio on a miss.
+     */
+    public CachedObject get(String objectName) {
+        CachedObject cached = lookup(objectName);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<CachedObject> fetch = new CompletableFuture<>();
+        CompletableFuture<CachedObject> existing = inFlight.putIfAbsent(objectName, fetch);
+        if (existing != null) {
+            logger.trace("Joining in-flight fetch for {}", objectName);
+            return join(existing);
+        }
+        try {
+            CachedObject object = fetch(objectName);
+            store(objectName, object);
+            fetch.complete(object);
+            if (!isPlaylist(objectName)) {
+                diskSegmentCache.put(objectName, object);
+            }
+            return object;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(objectName, fetch);
+        }
+    }
+
+    /**
+     * Fetches a segment into the disk tier only, unless a tier already holds
+     * it or a fetch for it is in flight. Demand requests arriving meanwhile
+     * join the same fetch. Returns false if nothing was fetched, which is
+     * always the case while the disk tier is disabled.
+     */
+    public boolean warm(String objectName) {
+        if (!diskSegmentCache.isEnabled() || lookup(objectName) != null || diskSegmentCache.contains(objectName)) {
+            return false;
+        }
+        CompletableFuture<CachedObject> fetch = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(objectName, fetch) != null) {
+            return false;
+        }
+        try {
+            CachedObject object = fetch(objectName);
+            diskSegmentCache.put(objectName, object);
+            fetch.complete(object);
+            return true;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(objectName, fetch);
+        }
+    }
+
+    /**
+     * Returns the cached object without falling through to Minio, or null.
+     */
+    public CachedObject getIfPresent(String objectName) {
+        CachedObject cached = lookup(objectName);
+        if (cached != null) {
+            hits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Reads object metadata without fetching the body.
+     */
+    public StatObjectResponse stat(String objectName) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(objectName)
+                    .build());
+            recordMinioRequest(sample, "stat", "success");
+            return stat;
+        } catch (Exception e) {
+            recordMinioRequest(sample, "stat", "error");
+            throw new RuntimeException("Error reading metadata of " + objectName + " from Minio", e);
+        }
+    }
+
+    /**
+     * Streams part of an object straight from Minio, bypassing the cache.
+     * Used for byte-range requests that miss every tier.
+     */
+    public InputStream openRange(String objectName, long offset, long length) {
+        // Time to first byte: the body is streamed to the client afterwards
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            InputStream stream = minioClient.getObject(GetObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(objectName)
+                    .offset(offset)
+                    .length(length)
+                    .build());
+            recordMinioRequest(sample, "range", "success");
+            return stream;
+        } catch (Exception e) {
+            recordMinioRequest(sample, "range", "error");
+            throw new RuntimeException("Error fetching range of " + objectName + " from Minio", e);
+        }
+    }
+
+    /**
+     * Drops a cached object, e.g. after a playlist was republished.
+     */
+    public void invalidate(String objectName) {
+        synchronized (entries) {
+            Entry removed = entries.remove(objectName);
+            if (removed != null) {
+                currentBytes -= removed.size;
+            }
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (entries) {
+            stats.put("entries", (long) entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private CachedObject lookup(String objectName) {
+        synchronized (entries) {
+            Entry entry = entries.get(objectName);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt > 0 && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(objectName);
+                currentBytes -= entry.size;
+                return null;
+            }
+            return entry.object;
+        }
+    }
+
+    private void store(String objectName, CachedObject object) {
+        long size = object.getLength();
+        if (size > maxBytes / 8) {
+            // A single huge object would flush most of the cache
+            logger.debug("Not caching {} ({} bytes), too large", objectName, size);
+            return;
+        }
+        long expiresAt = isPlaylist(objectName) ? System.currentTimeMillis() + playlistTtlMillis : 0;
+        synchronized (entries) {
+            Entry previous = entries.put(objectName, new Entry(object, expiresAt));
+            if (previous != null) {
+                currentBytes -= previous.size;
+            }
+            currentBytes += size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> victim = eldest.next();
+                currentBytes -= victim.getValue().size;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private CachedObject fetch(String objectName) {
+        logger.debug("Fetching {} from Minio", objectName);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            CachedObject object = read(objectName);
+            recordMinioRequest(sample, "get", "success");
+            return object;
+        } catch (RuntimeException e) {
+            recordMinioRequest(sample, "get", "error");
+            throw e;
+        }
+    }
+
+    private CachedObject read(String objectName) {
+        try (GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(objectName)
+                .build())) {
+            String etag = response.headers().get("ETag");
+            etag = etag != null ? etag.replace("\"", "") : "";
+            Date lastModified = response.headers().getDate("Last-Modified");
+            long lastModifiedMillis = lastModified != null ? lastModified.getTime() : System.currentTimeMillis();
+
+            String contentLength = response.headers().get("Content-Length");
+            if (contentLength == null) {
+                byte[] bytes = response.readAllBytes();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+                buffer.put(bytes).flip();
+                return new CachedObject(buffer, etag, lastModifiedMillis);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Integer.parseInt(contentLength));
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while (buffer.hasRemaining()
+                    && (read = response.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) != -1) {
+                buffer.put(chunk, 0, read);
+            }
+            buffer.flip();
+            return new CachedObject(buffer, etag, lastModifiedMillis);
+        } catch (Exception e) {
+            throw new RuntimeException("Error fetching " + objectName + " from Minio", e);
+        }
+    }
+
+    private void recordMinioRequest(Timer.Sample sample, String operation, String outcome) {
+        sample.stop(Timer.builder("abr.minio.requests")
+                .description("Minio calls on the playback path")
+                .tags("operation", operation, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private static CachedObject join(CompletableFuture<CachedObject> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static boolean isPlaylist(String objectName) {
+        return objectName.endsWith(".m3u8");
+    }
+}
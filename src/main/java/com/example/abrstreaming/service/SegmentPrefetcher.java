@@ -0,0 +1,281 @@
+package com.example.abrstreaming.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Warms the disk segment tier ahead of sequential HLS playback. When a
+ * viewer requests segment N of a rendition, segments N+1..N+k are fetched in
+ * the background, together with segment N+1 of the next lower rendition so
+ * an ABR down-switch is cheap. k follows the viewer's request cadence: a
+ * player filling its buffer asks faster than real time and gets a deeper
+ * prefetch than one that is keeping pace. Prefetches only run when a permit
+ * from the global budget is free, so they never queue up behind or in front
+ * of demand fetches.
+ *
+ * <p>The segments that follow are the ones listed after the requested one in
+ * the rendition's variant playlist, so segment names are not assumed. The
+ * playlists are read by the background task, never on the request thread;
+ * complete (VOD) playlists and the rendition ladder of the master playlist
+ * are kept parsed for {@link #LISTING_TTL_MILLIS}.
+ */
+@Component
+public class SegmentPrefetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentPrefetcher.class);
+    private static final Pattern SEGMENT = Pattern.compile("^(.+)/hls/([^/]+)/([^/]+)$");
+    private static final String VARIANT_PLAYLIST = "playlist.m3u8";
+    private static final int MAX_VIEWERS = 10000;
+    private static final int MAX_LISTINGS = 1024;
+    static final long LISTING_TTL_MILLIS = 60_000;
+
+    @Autowired
+    private SegmentCache segmentCache;
+
+    @Autowired
+    private DiskSegmentCache diskSegmentCache;
+
+    @Autowired
+    private ThreadPoolTaskExecutor prefetchExecutor;
+
+    @Value("${prefetch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${prefetch.max-depth:4}")
+    private int maxDepth;
+
+    @Value("${prefetch.max-concurrent:8}")
+    private int maxConcurrent;
+
+    @Value("${prefetch.segment-duration-ms:10000}")
+    private long segmentDurationMillis;
+
+    private Semaphore budget;
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    // Per viewer and rendition: last request time and smoothed interval
+    private final Map<String, Cadence> viewers = new LinkedHashMap<String, Cadence>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cadence> eldest) {
+            return size() > MAX_VIEWERS;
+        }
+    };
+
+    // Parsed URIs of complete playlists, by object name
+    private final Map<String, Listing> listings = new LinkedHashMap<String, Listing>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > MAX_LISTINGS;
+        }
+    };
+
+    private static class Cadence {
+        long lastRequestAt;
+        double intervalMillis;
+    }
+
+    private static class Listing {
+        final List<String> uris;
+        final long expiresAt;
+
+        Listing(List<String> uris, long expiresAt) {
+            this.uris = uris;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        budget = new Semaphore(maxConcurrent);
+        if (enabled && !diskSegmentCache.isEnabled()) {
+            // Prefetched segments are only kept on disk
+            logger.info("Segment prefetch is off because the disk segment tier is disabled");
+            enabled = false;
+        }
+    }
+
+    /**
+     * Called for every demand segment request. {@code viewer} identifies the
+     * client, e.g. its address.
+     */
+    public void onSegmentRequested(String objectName, String viewer) {
+        if (!enabled) {
+            return;
+        }
+        Matcher matcher = SEGMENT.matcher(objectName);
+        // Single-file renditions are always read in ranges, never cached whole
+        if (!matcher.matches() || objectName.endsWith(".m3u8") || HlsPackaging.isSingleFileObject(objectName)) {
+            return;
+        }
+        String videoId = matcher.group(1);
+        String quality = matcher.group(2);
+        String segment = matcher.group(3);
+
+        int depth = depthFor(viewer + "|" + videoId + "|" + quality);
+        execute(() -> {
+            for (String target : findTargets(videoId, quality, segment, depth)) {
+                execute(() -> {
+                    if (segmentCache.warm(target)) {
+                        issued.incrementAndGet();
+                        logger.trace("Prefetched {}", target);
+                    }
+                });
+            }
+        });
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("issued", issued.get());
+        stats.put("skipped", skipped.get());
+        stats.put("inFlight", (long) (maxConcurrent - budget.availablePermits()));
+        return stats;
+    }
+
+    private int depthFor(String viewerKey) {
+        long now = System.currentTimeMillis();
+        synchronized (viewers) {
+            Cadence cadence = viewers.computeIfAbsent(viewerKey, key -> new Cadence());
+            if (cadence.lastRequestAt > 0) {
+                long interval = now - cadence.lastRequestAt;
+                cadence.intervalMillis = cadence.intervalMillis == 0
+                        ? interval
+                        : 0.7 * cadence.intervalMillis + 0.3 * interval;
+            }
+            cadence.lastRequestAt = now;
+            if (cadence.intervalMillis <= 0) {
+                // First request of a session is usually the start of a buffer fill
+                return maxDepth;
+            }
+            int depth = (int) Math.ceil(segmentDurationMillis / cadence.intervalMillis);
+            return Math.max(1, Math.min(maxDepth, depth));
+        }
+    }
+
+    /**
+     * Runs {@code task} on the prefetch executor if a permit of the budget
+     * is free, and drops it otherwise.
+     */
+    private void execute(Runnable task) {
+        if (!budget.tryAcquire()) {
+            skipped.incrementAndGet();
+            return;
+        }
+        try {
+            prefetchExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Past the last segment, or not published yet
+                    logger.trace("Prefetch failed: {}", e.getMessage());
+                } finally {
+                    budget.release();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            budget.release();
+            skipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the objects to prefetch after {@code segment} of
+     * {@code quality}: the next {@code depth} segments of its playlist and
+     * the next segment of the rendition below. Renditions are cut at the same
+     * points, so segments at the same position cover the same time.
+     */
+    private List<String> findTargets(String videoId, String quality, String segment, int depth) {
+        List<String> targets = new ArrayList<>();
+        String directory = videoId + "/hls/" + quality + "/";
+        List<String> segments = getListing(directory + VARIANT_PLAYLIST);
+        int position = segments.indexOf(segment);
+        if (position < 0) {
+            return targets;
+        }
+        for (int i = position + 1; i <= position + depth && i < segments.size(); i++) {
+            targets.add(directory + segments.get(i));
+        }
+        String lower = nextLowerRendition(videoId, quality);
+        if (lower != null) {
+            String lowerDirectory = videoId + "/hls/" + lower + "/";
+            List<String> lowerSegments = getListing(lowerDirectory + VARIANT_PLAYLIST);
+            if (position + 1 < lowerSegments.size()) {
+                targets.add(lowerDirectory + lowerSegments.get(position + 1));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Finds the rendition listed after {@code quality} in the master
+     * playlist, which lists renditions from highest to lowest.
+     */
+    private String nextLowerRendition(String videoId, String quality) {
+        boolean found = false;
+        for (String uri : getListing(videoId + "/master.m3u8")) {
+            // Variant URIs look like hls/{quality}/playlist.m3u8
+            String directory = uri.contains("/") ? uri.substring(0, uri.lastIndexOf('/')) : uri;
+            String rendition = directory.substring(directory.lastIndexOf('/') + 1);
+            if (found) {
+                return rendition;
+            }
+            found = rendition.equals(quality);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URIs a playlist lists, in order. Master playlists and
+     * playlists with {@code EXT-X-ENDLIST} no longer change once published,
+     * so they are parsed once per {@link #LISTING_TTL_MILLIS}; live playlists
+     * are read from the segment cache each time.
+     */
+    private List<String> getListing(String objectName) {
+        long now = System.currentTimeMillis();
+        synchronized (listings) {
+            Listing listing = listings.get(objectName);
+            if (listing != null && listing.expiresAt > now) {
+                return listing.uris;
+            }
+        }
+        ByteBuffer playlist;
+        try {
+            playlist = segmentCache.get(objectName).getContent();
+        } catch (RuntimeException e) {
+            return List.of();
+        }
+        String content = StandardCharsets.UTF_8.decode(playlist).toString();
+        List<String> uris = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                uris.add(trimmed);
+            }
+        }
+        if (objectName.endsWith("/master.m3u8") || content.contains("#EXT-X-ENDLIST")) {
+            synchronized (listings) {
+                listings.put(objectName, new Listing(uris, now + LISTING_TTL_MILLIS));
+            }
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,482 @@
+package com.example.abrstreaming.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes HLS segments to Minio while ffmpeg is still writing them. A
+ * single watcher thread follows every active rendition directory; whenever
+ * ffmpeg rewrites a variant playlist, the segments it lists (which ffmpeg
+ * has closed by then) are handed to a bounded upload pool. The playlist
+ * itself is uploaded last, once every segment it references is in Minio.
+ * Initialization segments named by {@code EXT-X-MAP} are uploaded like
+ * segments. Files addressed with {@code EXT-X-BYTERANGE} are still growing
+ * while ffmpeg runs, so they are uploaded once, when the rendition finishes.
+ *
+ * <p>With progressive publishing enabled, an EVENT playlist covering the
+ * segments already in Minio is published after every completed upload, so
+ * players can start before the rendition is finished. The final playlist,
+ * with {@code EXT-X-ENDLIST}, replaces it when ffmpeg is done.
+ *
+ * <p>Low-latency sessions publish a playlist of their own instead: every
+ * uploaded ffmpeg segment is an {@code EXT-X-PART}, and each run of
+ * {@code parts-per-segment} parts is concatenated into the media segment
+ * they belong to. Every publish is announced to {@link LivePlaylists} so
+ * blocked playlist requests are answered as soon as their part exists.
+ */
+@Component
+public class SegmentUploader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentUploader.class);
+    private static final String PLAYLIST = "playlist.m3u8";
+
+    @Autowired
+    private ObjectStorage objectStorage;
+
+    @Autowired
+    private ThreadPoolTaskExecutor segmentUploadExecutor;
+
+    @Autowired
+    private SegmentCache segmentCache;
+
+    @Autowired
+    private DiskSegmentCache diskSegmentCache;
+
+    @Autowired
+    private HlsPackaging hlsPackaging;
+
+    @Autowired
+    private LivePlaylists livePlaylists;
+
+    @Value("${processing.progressive-publish:true}")
+    private boolean progressive;
+
+    private final Map<WatchKey, Session> sessions = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    @PostConstruct
+    void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        watcher = new Thread(this::watchLoop, "segment-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Starts following {@code directory}, which must exist before ffmpeg
+     * starts writing into it. Segments are uploaded under {@code minioPath}.
+     */
+    public Session open(Path directory, String minioPath) {
+        return open(directory, minioPath, false);
+    }
+
+    /**
+     * Like {@link #open(Path, String)}, publishing a low-latency playlist
+     * with parts if {@code lowLatency} is set.
+     */
+    public Session open(Path directory, String minioPath, boolean lowLatency) {
+        try {
+            Files.createDirectories(directory);
+            Session session = new Session(directory, minioPath, lowLatency);
+            session.key = directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            sessions.put(session.key, session);
+            if (lowLatency) {
+                livePlaylists.open(minioPath + "/" + PLAYLIST);
+            }
+            logger.debug("Watching {} for HLS segments", directory);
+            return session;
+        } catch (IOException e) {
+            logger.error("Failed to watch directory: {}", directory, e);
+            throw new RuntimeException("Failed to watch directory: " + directory, e);
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            // Every event means the playlist may have grown; rescanning is
+            // idempotent so coalesced or overflowed events are harmless
+            key.pollEvents();
+            Session session = sessions.get(key);
+            if (session != null) {
+                try {
+                    session.scan();
+                } catch (RuntimeException e) {
+                    logger.warn("Error scanning {} for segments", session.directory, e);
+                }
+            }
+            key.reset();
+        }
+    }
+
+    private String upload(byte[] content, String objectName) {
+        return objectStorage.putBytes(content, objectName);
+    }
+
+    private String upload(Path file, String objectName) {
+        logger.debug("Uploading HLS file to Minio: {}", objectName);
+        return objectStorage.putFile(file, objectName);
+    }
+
+    public class Session {
+        private final Path directory;
+        private final String minioPath;
+        private final boolean lowLatency;
+        private final Set<String> submitted = ConcurrentHashMap.newKeySet();
+        private final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+        private final Set<String> growing = ConcurrentHashMap.newKeySet();
+        private final List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        private final CompletableFuture<Void> firstPublish = new CompletableFuture<>();
+        private final Object publishLock = new Object();
+        private int publishedSegments;
+        // Low-latency media segments concatenated from parts so far
+        private int builtSegments;
+        private boolean finished;
+        private WatchKey key;
+
+        private Session(Path directory, String minioPath, boolean lowLatency) {
+            this.directory = directory;
+            this.minioPath = minioPath;
+            this.lowLatency = lowLatency;
+        }
+
+        /**
+         * Uploads every segment and initialization segment listed in the
+         * current playlist that has not been submitted yet. Byte-range
+         * files are only remembered for {@link #finish()}.
+         */
+        private synchronized void scan() {
+            Path playlist = directory.resolve(PLAYLIST);
+            if (!Files.exists(playlist)) {
+                return;
+            }
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(playlist);
+            } catch (IOException e) {
+                // ffmpeg may be replacing the file; the next event rescans it
+                return;
+            }
+            boolean byteRange = false;
+            for (String line : lines) {
+                String trimmed = line.trim();
+                String map = HlsPackaging.getMapUri(trimmed);
+                if (map != null) {
+                    if (trimmed.contains("BYTERANGE=")) {
+                        growing.add(map);
+                    } else {
+                        submit(map);
+                    }
+                    continue;
+                }
+                if (trimmed.startsWith("#EXT-X-BYTERANGE:")) {
+                    byteRange = true;
+                }
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                if (byteRange) {
+                    growing.add(trimmed);
+                    byteRange = false;
+                } else {
+                    submit(trimmed);
+                }
+            }
+        }
+
+        private void submit(String segment) {
+            if (submitted.contains(segment)) {
+                return;
+            }
+            Path file = directory.resolve(segment);
+            if (!Files.exists(file)) {
+                return;
+            }
+            submitted.add(segment);
+            uploads.add(CompletableFuture.runAsync(() -> {
+                uploadSegment(segment);
+                if (lowLatency) {
+                    synchronized (publishLock) {
+                        if (!finished) {
+                            publishLowLatency(false);
+                        }
+                    }
+                } else if (progressive) {
+                    publishProgress();
+                }
+            }, segmentUploadExecutor));
+        }
+
+        private void uploadSegment(String segment) {
+            Path file = directory.resolve(segment);
+            String etag = upload(file, minioPath + "/" + segment);
+            uploaded.add(segment);
+            // Freshly published videos start hot on this node
+            diskSegmentCache.seed(minioPath + "/" + segment, file, etag);
+        }
+
+        /**
+         * Completes once a playlist for this rendition is available in Minio.
+         */
+        public CompletableFuture<Void> firstPublish() {
+            return firstPublish;
+        }
+
+        /**
+         * Publishes the local playlist truncated at the first segment (or
+         * initialization segment) that is not in Minio yet, without an end tag.
+         */
+        private void publishProgress() {
+            synchronized (publishLock) {
+                if (finished) {
+                    return;
+                }
+                List<String> lines;
+                try {
+                    lines = Files.readAllLines(directory.resolve(PLAYLIST));
+                } catch (IOException e) {
+                    return;
+                }
+                StringBuilder playlist = new StringBuilder();
+                StringBuilder pendingTags = new StringBuilder();
+                int segments = 0;
+                for (String line : lines) {
+                    String trimmed = line.trim();
+                    if (trimmed.isEmpty() || trimmed.equals("#EXT-X-ENDLIST")) {
+                        continue;
+                    }
+                    if (trimmed.startsWith("#")) {
+                        String map = HlsPackaging.getMapUri(trimmed);
+                        if (map != null && !uploaded.contains(map)) {
+                            break;
+                        }
+                        pendingTags.append(trimmed).append('\n');
+                        continue;
+                    }
+                    if (!uploaded.contains(trimmed)) {
+                        break;
+                    }
+                    playlist.append(pendingTags).append(trimmed).append('\n');
+                    pendingTags.setLength(0);
+                    segments++;
+                }
+                if (segments <= publishedSegments) {
+                    return;
+                }
+                upload(playlist.toString().getBytes(StandardCharsets.UTF_8), minioPath + "/" + PLAYLIST);
+                segmentCache.invalidate(minioPath + "/" + PLAYLIST);
+                publishedSegments = segments;
+                logger.debug("Published progressive playlist with {} segments to {}", segments, minioPath);
+                firstPublish.complete(null);
+            }
+        }
+
+        /**
+         * Publishes the low-latency playlist for the parts already in Minio,
+         * first building and uploading every media segment whose parts are
+         * all there. Recent segments keep their parts listed, and the
+         * segment in progress is listed as parts only. The {@code last}
+         * playlist ends the rendition: its final segment may be short and it
+         * lists no parts. Call with {@code publishLock} held.
+         */
+        private void publishLowLatency(boolean last) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(directory.resolve(PLAYLIST));
+            } catch (IOException e) {
+                return;
+            }
+            String map = null;
+            List<String> parts = new ArrayList<>();
+            List<Double> durations = new ArrayList<>();
+            double duration = 0;
+            for (String line : lines) {
+                String trimmed = line.trim();
+                String uri = HlsPackaging.getMapUri(trimmed);
+                if (uri != null) {
+                    if (!uploaded.contains(uri)) {
+                        break;
+                    }
+                    map = uri;
+                } else if (trimmed.startsWith("#EXTINF:")) {
+                    int comma = trimmed.indexOf(',');
+                    duration = Double.parseDouble(trimmed.substring(8, comma < 0 ? trimmed.length() : comma));
+                } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                    if (!uploaded.contains(trimmed)) {
+                        break;
+                    }
+                    parts.add(trimmed);
+                    durations.add(duration);
+                }
+            }
+            if (map == null || parts.isEmpty() || (!last && parts.size() <= publishedSegments)) {
+                return;
+            }
+
+            int perSegment = hlsPackaging.getPartsPerSegment();
+            int complete = last ? (parts.size() + perSegment - 1) / perSegment : parts.size() / perSegment;
+            while (builtSegments < complete) {
+                int from = builtSegments * perSegment;
+                buildSegment(builtSegments, parts.subList(from, Math.min(parts.size(), from + perSegment)));
+                builtSegments++;
+            }
+
+            double partTarget = hlsPackaging.getPartSeconds();
+            int targetDuration = hlsPackaging.getTargetDurationSeconds();
+            for (int i = 0; i < complete; i++) {
+                targetDuration = Math.max(targetDuration, (int) Math.ceil(segmentDuration(durations, i, perSegment)));
+            }
+            StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:")
+                    .append(hlsPackaging.getPlaylistVersion(false)).append('\n');
+            playlist.append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+            if (!last) {
+                playlist.append(String.format(Locale.ROOT, "#EXT-X-PART-INF:PART-TARGET=%.3f\n", partTarget));
+                playlist.append(String.format(Locale.ROOT,
+                        "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=%.3f\n", 3 * partTarget));
+            }
+            playlist.append("#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:EVENT\n");
+            playlist.append("#EXT-X-MAP:URI=\"").append(map).append("\"\n");
+            for (int i = 0; i < complete; i++) {
+                // Parts are only listed close to the live edge
+                if (!last && i >= complete - 2) {
+                    appendParts(playlist, parts, durations, i * perSegment, (i + 1) * perSegment);
+                }
+                playlist.append(String.format(Locale.ROOT, "#EXTINF:%.6f,\n",
+                        segmentDuration(durations, i, perSegment)));
+                playlist.append("segment").append(i).append(".m4s\n");
+            }
+            if (last) {
+                playlist.append("#EXT-X-ENDLIST\n");
+            } else {
+                appendParts(playlist, parts, durations, complete * perSegment, parts.size());
+            }
+
+            byte[] content = playlist.toString().getBytes(StandardCharsets.UTF_8);
+            String etag = upload(content, minioPath + "/" + PLAYLIST);
+            segmentCache.invalidate(minioPath + "/" + PLAYLIST);
+            livePlaylists.publish(minioPath + "/" + PLAYLIST,
+                    new CachedObject(ByteBuffer.wrap(content), etag, System.currentTimeMillis()),
+                    complete, parts.size() - complete * perSegment);
+            publishedSegments = parts.size();
+            logger.debug("Published low-latency playlist with {} segments and {} parts to {}", complete,
+                    parts.size(), minioPath);
+            firstPublish.complete(null);
+        }
+
+        private void appendParts(StringBuilder playlist, List<String> parts, List<Double> durations, int from, int to) {
+            for (int i = from; i < Math.min(to, parts.size()); i++) {
+                // Every part starts on a forced keyframe
+                playlist.append(String.format(Locale.ROOT, "#EXT-X-PART:DURATION=%.6f,URI=\"%s\",INDEPENDENT=YES\n",
+                        durations.get(i), parts.get(i)));
+            }
+        }
+
+        private double segmentDuration(List<Double> durations, int segment, int perSegment) {
+            double total = 0;
+            for (int i = segment * perSegment; i < Math.min(durations.size(), (segment + 1) * perSegment); i++) {
+                total += durations.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * Concatenates the fMP4 fragments of {@code parts} into media
+         * segment {@code index} and uploads it.
+         */
+        private void buildSegment(int index, List<String> parts) {
+            String name = "segment" + index + ".m4s";
+            Path file = directory.resolve(name);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (String part : parts) {
+                    Files.copy(directory.resolve(part), out);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to build segment {} in {}", name, directory, e);
+                throw new RuntimeException("Failed to build segment " + name, e);
+            }
+            uploadSegment(name);
+        }
+
+        /**
+         * Call once ffmpeg has exited. Picks up the final segments, waits for
+         * all uploads, uploads byte-range files and then publishes the playlist.
+         */
+        public void finish() {
+            sessions.remove(key);
+            key.cancel();
+            List<CompletableFuture<Void>> pending;
+            synchronized (this) {
+                scan();
+                pending = new ArrayList<>(uploads);
+            }
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            for (String file : growing) {
+                uploadSegment(file);
+            }
+            synchronized (publishLock) {
+                if (lowLatency) {
+                    publishLowLatency(true);
+                } else {
+                    upload(directory.resolve(PLAYLIST), minioPath + "/" + PLAYLIST);
+                    segmentCache.invalidate(minioPath + "/" + PLAYLIST);
+                }
+                finished = true;
+            }
+            livePlaylists.close(minioPath + "/" + PLAYLIST);
+            firstPublish.complete(null);
+            logger.info("Completed uploading {} HLS files to {}", pending.size() + growing.size(), minioPath);
+        }
+
+        /**
+         * Stops watching without publishing the playlist, e.g. when ffmpeg failed.
+         */
+        public void abandon() {
+            sessions.remove(key);
+            key.cancel();
+            livePlaylists.close(minioPath + "/" + PLAYLIST);
+            firstPublish.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.abrstreaming.service;
+
+import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.MinioClient;
+import io.minio.http.Method;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Signs Minio URLs for segments so players can fetch media straight from
+ * object storage (or a CDN in front of it) instead of through this service.
+ *
+ * <p>{@code delivery.mode} selects how segments are delivered:
+ * <ul>
+ *   <li>{@code proxy}: segment bytes are served by the application (default)</li>
+ *   <li>{@code redirect}: segment requests answer 302 to a pre-signed URL</li>
+ *   <li>{@code presigned-playlist}: variant playlists are rewritten to list
+ *   pre-signed segment URLs, so segment requests never reach the application</li>
+ * </ul>
+ */
+@Component
+public class SegmentUrlSigner {
+
+    public static final String MODE_PROXY = "proxy";
+    public static final String MODE_REDIRECT = "redirect";
+    public static final String MODE_PRESIGNED_PLAYLIST = "presigned-playlist";
+
+    @Autowired
+    @Qualifier("presignMinioClient")
+    private MinioClient presignMinioClient;
+
+    @Value("${minio.bucket}")
+    private String bucket;
+
+    @Value("${delivery.mode:proxy}")
+    private String mode;
+
+    @Value("${delivery.presign-expiry-seconds:3600}")
+    private int expirySeconds;
+
+    public boolean isRedirect() {
+        return MODE_REDIRECT.equals(mode);
+    }
+
+    public boolean isPresignedPlaylist() {
+        return MODE_PRESIGNED_PLAYLIST.equals(mode);
+    }
+
+    public String sign(String objectName) {
+        try {
+            return presignMinioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                    .method(Method.GET)
+                    .bucket(bucket)
+                    .object(objectName)
+                    .expiry(expirySeconds)
+                    .build());
+        } catch (Exception e) {
+            throw new RuntimeException("Error signing URL for " + objectName, e);
+        }
+    }
+
+    /**
+     * Rewrites a variant playlist stored at {@code playlistObject} so every
+     * segment URI, and the URI of every {@code EXT-X-MAP} initialization
+     * segment, is a pre-signed URL. Other tags are copied unchanged.
+     */
+    public byte[] rewritePlaylist(String playlistObject, CachedObject playlist) {
+        String prefix = playlistObject.substring(0, playlistObject.lastIndexOf('/') + 1);
+        String content = StandardCharsets.UTF_8.decode(playlist.getContent()).toString();
+        StringBuilder rewritten = new StringBuilder(content.length() * 2);
+        for (String line : content.split("\n")) {
+            String trimmed = line.trim();
+            String map = HlsPackaging.getMapUri(trimmed);
+            if (map != null && !map.contains("://")) {
+                rewritten.append(trimmed.replace("URI=\"" + map + "\"", "URI=\"" + sign(prefix + map) + "\""))
+                        .append('\n');
+            } else if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.contains("://")) {
+                rewritten.append(line).append('\n');
+            } else {
+                rewritten.append(sign(prefix + trimmed)).append('\n');
+            }
+        }
+        return rewritten.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,458 @@
+package com.example.abrstreaming.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.minio.messages.Part;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable, chunked ingest. A client creates a session, PUTs the source in
+ * numbered parts of {@code upload.part-size} bytes, in order, and completes
+ * the session. Each part is streamed from the request straight into the
+ * local source file while the running SHA-256 is updated, then shipped to a
+ * Minio multipart upload from the file region it was just written to, in
+ * the background while the next part arrives. Heap use is one copy buffer
+ * per request regardless of the source size, and a dropped connection only
+ * costs the part that was in flight. Sessions that receive nothing for
+ * {@code upload.session-ttl-seconds} are aborted like {@link #abort}.
+ */
+@Service
+public class UploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadService.class);
+    private static final String UPLOADS_DIR = "uploads";
+    // S3 rejects multipart parts below 5 MiB, except for the last one
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_SWEEP_INTERVAL_SECONDS = 600;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final Path uploadsPath = Paths.get(System.getProperty("user.dir"), "output", UPLOADS_DIR);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ObjectStorage objectStorage;
+
+    @Autowired
+    private ThreadPoolTaskExecutor uploadExecutor;
+
+    @Autowired
+    private VideoService videoService;
+
+    @Autowired
+    private IngestScheduler ingestScheduler;
+
+    @Value("${upload.part-size:16777216}")
+    private long partSize;
+
+    @Value("${upload.session-ttl-seconds:86400}")
+    private long sessionTtlSeconds;
+
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    void loadPersistedSessions() throws IOException {
+        Files.createDirectories(uploadsPath);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploadsPath, "*.json")) {
+            for (Path file : stream) {
+                try {
+                    UploadSession session = objectMapper.readValue(file.toFile(), UploadSession.class);
+                    sessions.put(session.getUploadId(), session);
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable upload session file: {}", file, e);
+                }
+            }
+        }
+        logger.info("Loaded {} resumable upload sessions from {}", sessions.size(), uploadsPath);
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, Math.min(sessionTtlSeconds, MAX_SWEEP_INTERVAL_SECONDS));
+        sweeper.scheduleWithFixedDelay(this::expireSessions, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Opens a session whose video is processed for {@code tenant} at
+     * {@code priority}. Refused with a {@code TaskRejectedException} while
+     * the tenant could not queue another job, so a client does not send a
+     * source that would be rejected once complete.
+     */
+    public UploadSession create(String originalFilename, long expectedSize, String tenant, JobPriority priority) {
+        ingestScheduler.checkAdmission(tenant);
+        int dot = originalFilename.lastIndexOf('.');
+        if (dot < 0) {
+            throw new IllegalArgumentException("Filename has no extension: " + originalFilename);
+        }
+        String videoId = UUID.randomUUID().toString();
+        String objectName = videoId + "/original" + originalFilename.substring(dot);
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(UUID.randomUUID().toString());
+        session.setVideoId(videoId);
+        session.setOriginalFilename(originalFilename);
+        session.setExtension(originalFilename.substring(dot));
+        session.setTenant(IngestScheduler.tenantOrDefault(tenant));
+        session.setPriority(priority);
+        session.setPartSize(Math.max(MIN_PART_SIZE, partSize));
+        session.setExpectedSize(Math.max(0, expectedSize));
+        session.setCreatedAt(Instant.now());
+        session.setUpdatedAt(session.getCreatedAt());
+        session.setMinioUploadId(objectStorage.createMultipartUpload(objectName));
+        session.digest = newDigest();
+        sessions.put(session.getUploadId(), session);
+        persist(session);
+        logger.info("Created upload session {} for {} (videoId: {})",
+                session.getUploadId(), originalFilename, videoId);
+        return session;
+    }
+
+    public Optional<UploadSession> find(String uploadId) {
+        return Optional.ofNullable(sessions.get(uploadId));
+    }
+
+    /**
+     * Streams part {@code partNumber} from {@code body} into the session.
+     * Parts must arrive in order; re-sending the part after the last
+     * accepted one replaces whatever was received of it before.
+     */
+    public UploadSession writePart(String uploadId, int partNumber, InputStream body) throws IOException {
+        UploadSession session = get(uploadId);
+        if (!session.lock.tryLock()) {
+            throw new IllegalStateException("Another request is writing to upload " + uploadId);
+        }
+        try {
+            int expected = session.getReceivedParts() + 1;
+            if (session.isAssembled() || session.isLastPartReceived()) {
+                throw new IllegalStateException("Upload " + uploadId + " already received its last part");
+            }
+            if (partNumber != expected) {
+                throw new IllegalStateException("Expected part " + expected + " of upload " + uploadId
+                        + ", got " + partNumber);
+            }
+            long offset = session.getReceivedBytes();
+            MessageDigest digest = cloneDigest(restoreDigest(session));
+
+            Path file = getPartialPath(session);
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Drop anything left by an earlier, interrupted attempt at this part
+                channel.truncate(offset);
+                channel.position(offset);
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    written += read;
+                    if (written > session.getPartSize()) {
+                        channel.truncate(offset);
+                        throw new IllegalArgumentException("Part " + partNumber + " exceeds the part size of "
+                                + session.getPartSize() + " bytes");
+                    }
+                    digest.update(buffer, 0, read);
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                }
+            }
+            if (written == 0) {
+                throw new IllegalArgumentException("Part " + partNumber + " is empty");
+            }
+
+            session.digest = digest;
+            session.setReceivedBytes(offset + written);
+            session.setReceivedParts(partNumber);
+            session.setLastPartReceived(written < session.getPartSize());
+            session.setUpdatedAt(Instant.now());
+            persist(session);
+
+            long length = written;
+            session.pendingParts.put(partNumber, CompletableFuture.runAsync(
+                    () -> shipPart(session, partNumber, offset, length), uploadExecutor));
+            logger.debug("Received part {} ({} bytes) of upload {}", partNumber, written, uploadId);
+            return session;
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Finishes the Minio object, puts the source in place and queues it for
+     * processing. If {@code expectedSha256} is given it must match the
+     * received bytes. Returns the videoId. While the tenant's queue is full
+     * a {@code TaskRejectedException} is thrown and the session is kept, so
+     * the client can complete it again later; the Minio object is only
+     * finished once.
+     */
+    public String complete(String uploadId, String expectedSha256) {
+        UploadSession session = get(uploadId);
+        // Cheap early refusal; the queue has the final word below
+        ingestScheduler.checkAdmission(session.getTenant());
+        if (!session.lock.tryLock()) {
+            throw new IllegalStateException("Another request is writing to upload " + uploadId);
+        }
+        try {
+            String sha256;
+            if (session.getReceivedParts() == 0) {
+                throw new IllegalStateException("Upload " + uploadId + " has no parts");
+            }
+            if (session.getExpectedSize() > 0 && session.getExpectedSize() != session.getReceivedBytes()) {
+                throw new IllegalStateException("Upload " + uploadId + " has " + session.getReceivedBytes()
+                        + " of " + session.getExpectedSize() + " bytes");
+            }
+            sha256 = HexFormat.of().formatHex(cloneDigest(restoreDigest(session)).digest());
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+                throw new IllegalArgumentException("SHA-256 mismatch for upload " + uploadId + ": received " + sha256);
+            }
+
+            if (!session.isAssembled()) {
+                assemble(session);
+            }
+
+            // Linked rather than moved: a rejected job deletes its source,
+            // which then only drops the link and keeps the session whole
+            Path partial = getPartialPath(session);
+            Path source = videoService.getSourcePath(session.getVideoId(), session.getExtension());
+            Files.deleteIfExists(source);
+            try {
+                Files.createLink(source, partial);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(partial, source, StandardCopyOption.REPLACE_EXISTING);
+            }
+            videoService.submit(session.getVideoId(), session.getOriginalFilename(), session.getExtension(), sha256,
+                    session.getTenant(), session.getPriority());
+
+            Files.deleteIfExists(partial);
+            remove(session);
+            logger.info("Completed upload {} ({} bytes, sha256 {}) as videoId: {}",
+                    uploadId, session.getReceivedBytes(), sha256, session.getVideoId());
+            return session.getVideoId();
+        } catch (IOException e) {
+            logger.error("Error finishing upload {}", uploadId, e);
+            throw new RuntimeException("Error finishing upload " + uploadId, e);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Ships the parts Minio does not have yet and completes the multipart
+     * upload. Parts whose background upload failed, or was lost to a restart,
+     * are shipped again from the local file.
+     */
+    private void assemble(UploadSession session) {
+        String uploadId = session.getUploadId();
+        for (int partNumber = 1; partNumber <= session.getReceivedParts(); partNumber++) {
+            CompletableFuture<Void> pending = session.pendingParts.get(partNumber);
+            if (pending != null) {
+                try {
+                    pending.join();
+                } catch (CompletionException e) {
+                    logger.warn("Retrying part {} of upload {}", partNumber, uploadId);
+                }
+            }
+            if (!session.getPartEtags().containsKey(partNumber)) {
+                long offset = (partNumber - 1) * session.getPartSize();
+                long length = Math.min(session.getPartSize(), session.getReceivedBytes() - offset);
+                shipPart(session, partNumber, offset, length);
+            }
+        }
+        List<Part> parts = new ArrayList<>();
+        for (int partNumber = 1; partNumber <= session.getReceivedParts(); partNumber++) {
+            parts.add(new Part(partNumber, session.getPartEtags().get(partNumber)));
+        }
+        objectStorage.completeMultipartUpload(getObjectName(session), session.getMinioUploadId(),
+                parts.toArray(new Part[0]));
+        session.setAssembled(true);
+        session.setUpdatedAt(Instant.now());
+        persist(session);
+    }
+
+    public void abort(String uploadId) {
+        UploadSession session = get(uploadId);
+        session.lock.lock();
+        try {
+            discard(session);
+            logger.info("Aborted upload {}", uploadId);
+        } catch (IOException e) {
+            logger.error("Error deleting partial upload {}", uploadId, e);
+            throw new RuntimeException("Error deleting partial upload " + uploadId, e);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Aborts sessions that have not received a part for the TTL: their
+     * Minio upload is dropped and their local files deleted. A session that
+     * a request is working on is left for the next sweep.
+     */
+    private void expireSessions() {
+        Instant cutoff = Instant.now().minusSeconds(sessionTtlSeconds);
+        for (UploadSession session : sessions.values()) {
+            if (!isIdleSince(session, cutoff) || !session.lock.tryLock()) {
+                continue;
+            }
+            try {
+                // Checked again now that no request can touch it
+                if (sessions.get(session.getUploadId()) == session && isIdleSince(session, cutoff)) {
+                    discard(session);
+                    logger.info("Expired upload {} (videoId: {}), idle since {}",
+                            session.getUploadId(), session.getVideoId(), session.getUpdatedAt());
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to expire upload {}", session.getUploadId(), e);
+            } finally {
+                session.lock.unlock();
+            }
+        }
+    }
+
+    private static boolean isIdleSince(UploadSession session, Instant cutoff) {
+        Instant updatedAt = session.getUpdatedAt() != null ? session.getUpdatedAt() : session.getCreatedAt();
+        return updatedAt == null || updatedAt.isBefore(cutoff);
+    }
+
+    /**
+     * Drops the session's Minio object, or its unfinished multipart upload,
+     * and its local files. Called with the session lock held.
+     */
+    private void discard(UploadSession session) throws IOException {
+        try {
+            if (session.isAssembled()) {
+                objectStorage.removeObject(getObjectName(session));
+            } else {
+                objectStorage.abortMultipartUpload(getObjectName(session), session.getMinioUploadId());
+            }
+        } catch (RuntimeException e) {
+            // Minio expires incomplete multipart uploads on its own
+            logger.warn("Error aborting multipart upload for {}", session.getUploadId(), e);
+        }
+        Files.deleteIfExists(getPartialPath(session));
+        remove(session);
+    }
+
+    private void shipPart(UploadSession session, int partNumber, long offset, long length) {
+        String objectName = getObjectName(session);
+        String etag = objectStorage.uploadPart(objectName, session.getMinioUploadId(), partNumber,
+                getPartialPath(session), offset, length);
+        session.getPartEtags().put(partNumber, etag);
+        persist(session);
+        logger.debug("Uploaded part {} of {} to Minio", partNumber, objectName);
+    }
+
+    /**
+     * Returns the running digest, rebuilding it from the partial file after
+     * a restart.
+     */
+    private MessageDigest restoreDigest(UploadSession session) throws IOException {
+        if (session.digest == null) {
+            MessageDigest digest = newDigest();
+            try (InputStream in = Files.newInputStream(getPartialPath(session))) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                long remaining = session.getReceivedBytes();
+                int read;
+                while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    digest.update(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            session.digest = digest;
+        }
+        return session.digest;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digest cannot be cloned", e);
+        }
+    }
+
+    private UploadSession get(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            throw new NoSuchElementException("Unknown upload: " + uploadId);
+        }
+        return session;
+    }
+
+    private Path getPartialPath(UploadSession session) {
+        return uploadsPath.resolve(session.getUploadId() + session.getExtension() + ".part");
+    }
+
+    private static String getObjectName(UploadSession session) {
+        return session.getVideoId() + "/original" + session.getExtension();
+    }
+
+    private void remove(UploadSession session) throws IOException {
+        sessions.remove(session.getUploadId());
+        Files.deleteIfExists(uploadsPath.resolve(session.getUploadId() + ".json"));
+    }
+
+    private void persist(UploadSession session) {
+        Path target = uploadsPath.resolve(session.getUploadId() + ".json");
+        Path temp = uploadsPath.resolve(session.getUploadId() + ".json.tmp");
+        // Part uploads finish on pool threads while the request thread may
+        // be persisting too; the session monitor keeps the writes apart
+        synchronized (session) {
+            try {
+                objectMapper.writeValue(temp.toFile(), session);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.error("Failed to persist upload session {}", session.getUploadId(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.abrstreaming.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State of one resumable upload. Serialized to JSON by {@link UploadService}
+ * after every accepted part, so an upload survives a restart; the running
+ * hash and in-flight part uploads are rebuilt when needed.
+ */
+public class UploadSession {
+
+    private String uploadId;
+    private String videoId;
+    private String originalFilename;
+    private String extension;
+    private String tenant;
+    private JobPriority priority = JobPriority.NORMAL;
+    private String minioUploadId;
+    private long partSize;
+    private long expectedSize;
+    private long receivedBytes;
+    private int receivedParts;
+    private boolean lastPartReceived;
+    private boolean assembled;
+    private Map<Integer, String> partEtags = new ConcurrentHashMap<>();
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    @JsonIgnore
+    final ReentrantLock lock = new ReentrantLock();
+
+    // SHA-256 over the first receivedBytes bytes; null after a restart
+    @JsonIgnore
+    MessageDigest digest;
+
+    @JsonIgnore
+    final Map<Integer, CompletableFuture<Void>> pendingParts = new ConcurrentHashMap<>();
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public void setVideoId(String videoId) {
+        this.videoId = videoId;
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public void setOriginalFilename(String originalFilename) {
+        this.originalFilename = originalFilename;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public void setExtension(String extension) {
+        this.extension = extension;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public JobPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(JobPriority priority) {
+        this.priority = priority;
+    }
+
+    public String getMinioUploadId() {
+        return minioUploadId;
+    }
+
+    public void setMinioUploadId(String minioUploadId) {
+        this.minioUploadId = minioUploadId;
+    }
+
+    /** Size of every part except the last, in bytes. */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    /** Total size announced by the client, 0 if unknown. */
+    public long getExpectedSize() {
+        return expectedSize;
+    }
+
+    public void setExpectedSize(long expectedSize) {
+        this.expectedSize = expectedSize;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public void setReceivedBytes(long receivedBytes) {
+        this.receivedBytes = receivedBytes;
+    }
+
+    public int getReceivedParts() {
+        return receivedParts;
+    }
+
+    public void setReceivedParts(int receivedParts) {
+        this.receivedParts = receivedParts;
+    }
+
+    /** True once a part shorter than the part size arrived; no more can follow. */
+    public boolean isLastPartReceived() {
+        return lastPartReceived;
+    }
+
+    public void setLastPartReceived(boolean lastPartReceived) {
+        this.lastPartReceived = lastPartReceived;
+    }
+
+    /**
+     * True once the Minio object is complete and only the job is left to
+     * queue; no more parts are accepted.
+     */
+    public boolean isAssembled() {
+        return assembled;
+    }
+
+    public void setAssembled(boolean assembled) {
+        this.assembled = assembled;
+    }
+
+    /** ETags of the parts already in Minio, by part number. */
+    public Map<Integer, String> getPartEtags() {
+        return partEtags;
+    }
+
+    public void setPartEtags(Map<Integer, String> partEtags) {
+        this.partEtags = new ConcurrentHashMap<>(partEtags);
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.abrstreaming.service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Processing state of a single uploaded video. Instances are serialized to
+ * JSON by {@link VideoJobStore} so the state survives a restart.
+ */
+public class VideoJob {
+
+    private String videoId;
+    private String originalFilename;
+    private String extension;
+    private String sha256;
+    private String tenant;
+    private JobPriority priority = JobPriority.NORMAL;
+    private JobStatus status;
+    private Map<String, JobStatus> renditions = new ConcurrentHashMap<>();
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+    private Instant startedAt;
+    private Instant playableAt;
+    private Instant completedAt;
+
+    public VideoJob() {
+    }
+
+    public VideoJob(String videoId, String originalFilename, String extension) {
+        this.videoId = videoId;
+        this.originalFilename = originalFilename;
+        this.extension = extension;
+        this.status = JobStatus.QUEUED;
+        this.createdAt = Instant.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public void setVideoId(String videoId) {
+        this.videoId = videoId;
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public void setOriginalFilename(String originalFilename) {
+        this.originalFilename = originalFilename;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public void setExtension(String extension) {
+        this.extension = extension;
+    }
+
+    /** Hex SHA-256 of the uploaded source, if it was computed during ingest. */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public JobPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(JobPriority priority) {
+        this.priority = priority;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(JobStatus status) {
+        this.status = status;
+    }
+
+    public Map<String, JobStatus> getRenditions() {
+        return renditions;
+    }
+
+    public void setRenditions(Map<String, JobStatus> renditions) {
+        this.renditions = new ConcurrentHashMap<>(renditions);
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getPlayableAt() {
+        return playableAt;
+    }
+
+    public void setPlayableAt(Instant playableAt) {
+        this.playableAt = playableAt;
+    }
+
+    public Instant getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Instant completedAt) {
+        this.completedAt = completedAt;
+    }
+}
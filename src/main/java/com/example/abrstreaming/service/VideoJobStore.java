@@ -0,0 +1,198 @@
+package com.example.abrstreaming.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the state of every processing job in memory and writes each change
+ * through to {@code output/jobs/{videoId}.json}, so jobs interrupted by a
+ * restart can be picked up again.
+ */
+@Component
+public class VideoJobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoJobStore.class);
+    private static final String JOBS_DIR = "jobs";
+
+    private final Map<String, VideoJob> jobs = new ConcurrentHashMap<>();
+    private final Path jobsPath = Paths.get(System.getProperty("user.dir"), "output", JOBS_DIR);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PostConstruct
+    void loadPersistedJobs() throws IOException {
+        Files.createDirectories(jobsPath);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(jobsPath, "*.json")) {
+            for (Path file : stream) {
+                try {
+                    VideoJob job = objectMapper.readValue(file.toFile(), VideoJob.class);
+                    jobs.put(job.getVideoId(), job);
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable job file: {}", file, e);
+                }
+            }
+        }
+        logger.info("Loaded {} persisted jobs from {}", jobs.size(), jobsPath);
+    }
+
+    public VideoJob create(String videoId, String originalFilename, String extension, String sha256,
+                           String tenant, JobPriority priority) {
+        VideoJob job = new VideoJob(videoId, originalFilename, extension);
+        job.setSha256(sha256);
+        job.setTenant(tenant);
+        job.setPriority(priority);
+        jobs.put(videoId, job);
+        persist(job);
+        return job;
+    }
+
+    public Optional<VideoJob> find(String videoId) {
+        return Optional.ofNullable(jobs.get(videoId));
+    }
+
+    /**
+     * Returns jobs that had not ended when they were last persisted.
+     */
+    public Collection<VideoJob> findUnfinished() {
+        List<VideoJob> unfinished = new ArrayList<>();
+        for (VideoJob job : jobs.values()) {
+            if (!job.getStatus().isTerminal()) {
+                unfinished.add(job);
+            }
+        }
+        return unfinished;
+    }
+
+    public void transition(String videoId, JobStatus status) {
+        VideoJob job = get(videoId);
+        synchronized (job) {
+            if (job.getStatus().isTerminal()) {
+                throw new IllegalStateException("Job " + videoId + " is already " + job.getStatus());
+            }
+            Instant now = Instant.now();
+            if (job.getStartedAt() == null && status != JobStatus.QUEUED) {
+                job.setStartedAt(now);
+            }
+            if (status == JobStatus.QUEUED) {
+                job.getRenditions().clear();
+                job.setPlayableAt(null);
+            }
+            if (status.isTerminal()) {
+                job.setCompletedAt(now);
+            }
+            job.setStatus(status);
+            job.setUpdatedAt(now);
+            logger.debug("Job {} -> {}", videoId, status);
+            persist(job);
+        }
+    }
+
+    /**
+     * Records the stage of a single rendition. Renditions are processed
+     * concurrently, so the job-level status only tracks the overall phase.
+     */
+    public void updateRendition(String videoId, String rendition, JobStatus status) {
+        VideoJob job = get(videoId);
+        synchronized (job) {
+            job.getRenditions().put(rendition, status);
+            job.setUpdatedAt(Instant.now());
+            logger.debug("Job {} rendition {} -> {}", videoId, rendition, status);
+            persist(job);
+        }
+    }
+
+    /**
+     * Records that the master playlist is in Minio and playback can start.
+     */
+    public void markPlayable(String videoId) {
+        VideoJob job = get(videoId);
+        synchronized (job) {
+            if (job.getPlayableAt() != null) {
+                return;
+            }
+            job.setPlayableAt(Instant.now());
+            job.setUpdatedAt(job.getPlayableAt());
+            logger.debug("Job {} is playable", videoId);
+            persist(job);
+        }
+    }
+
+    /**
+     * Records that the playlists of a job that did not finish were taken
+     * out of Minio again, so the video can no longer be played.
+     */
+    public void clearPlayable(String videoId) {
+        VideoJob job = get(videoId);
+        synchronized (job) {
+            if (job.getPlayableAt() == null) {
+                return;
+            }
+            job.setPlayableAt(null);
+            job.setUpdatedAt(Instant.now());
+            logger.debug("Job {} is no longer playable", videoId);
+            persist(job);
+        }
+    }
+
+    public void fail(String videoId, String error) {
+        VideoJob job = jobs.get(videoId);
+        if (job == null) {
+            return;
+        }
+        synchronized (job) {
+            job.setError(error);
+        }
+        transition(videoId, JobStatus.FAILED);
+    }
+
+    /**
+     * Forgets a job that never got into the queue, so a rejected submission
+     * leaves no record behind.
+     */
+    public void remove(String videoId) {
+        jobs.remove(videoId);
+        try {
+            Files.deleteIfExists(jobsPath.resolve(videoId + ".json"));
+        } catch (IOException e) {
+            logger.warn("Failed to delete job state for videoId: {}", videoId, e);
+        }
+    }
+
+    private VideoJob get(String videoId) {
+        VideoJob job = jobs.get(videoId);
+        if (job == null) {
+            throw new IllegalStateException("Unknown job: " + videoId);
+        }
+        return job;
+    }
+
+    private void persist(VideoJob job) {
+        Path target = jobsPath.resolve(job.getVideoId() + ".json");
+        Path temp = jobsPath.resolve(job.getVideoId() + ".json.tmp");
+        try {
+            objectMapper.writeValue(temp.toFile(), job);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to persist job state for videoId: {}", job.getVideoId(), e);
+        }
+    }
+}
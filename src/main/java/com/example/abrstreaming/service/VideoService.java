@@ -1,11 +1,17 @@
 package com.example.abrstreaming.service;
 
-import io.minio.MinioClient;
-import io.minio.PutObjectArgs;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -14,18 +20,24 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 
 @Service
 public class VideoService {
 
     private static final Logger logger = LoggerFactory.getLogger(VideoService.class);
     private static final String OUTPUT_DIR = "output";
+    private static final String PIPELINE_SINGLE_PASS = "single-pass";
+    private static final String PIPELINE_CHUNKED = "chunked";
     private final Path outputPath;
 
     public VideoService() {
@@ -41,29 +53,108 @@ public class VideoService {
     }
 
     @Autowired
-    private MinioClient minioClient;
+    private ObjectStorage objectStorage;
 
-    @Value("${minio.bucket}")
-    private String bucket;
+    /**
+     * "single-pass" decodes the source once and encodes the whole ladder in one
+     * ffmpeg process; "per-rendition" runs separate transcode and HLS steps
+     * for every rendition; "chunked" encodes the ladder for segment-aligned
+     * chunks of the source in parallel and stitches them together.
+     */
+    @Value("${processing.pipeline:single-pass}")
+    private String pipeline;
 
-    // Add timing data structures
+    /**
+     * Publish EVENT playlists and the master playlist as soon as every
+     * rendition has its first segments in Minio, instead of after processing.
+     */
+    @Value("${processing.progressive-publish:true}")
+    private boolean progressivePublish;
+
+    @Value("${processing.chunk-workers:4}")
+    private int chunkWorkers;
+
+    @Autowired
+    private VideoJobStore jobStore;
+
+    @Autowired
+    private ThreadPoolTaskExecutor videoProcessingExecutor;
+
+    @Autowired
+    private ThreadPoolTaskExecutor renditionExecutor;
+
+    @Autowired
+    private ThreadPoolTaskExecutor uploadExecutor;
+
+    @Autowired
+    private ThreadPoolTaskExecutor chunkEncodeExecutor;
+
+    @Autowired
+    private EncodeScheduler encodeScheduler;
+
+    @Autowired
+    private ChunkPlanner chunkPlanner;
+
+    @Autowired
+    private MediaProbe mediaProbe;
+
+    @Autowired
+    private LadderPlanner ladderPlanner;
+
+    @Autowired
+    private ProcessRunner processRunner;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SegmentUploader segmentUploader;
+
+    @Autowired
+    private SegmentCache segmentCache;
+
+    @Autowired
+    private HlsPackaging hlsPackaging;
+
+    @Autowired
+    private IngestScheduler ingestScheduler;
+
+    @Autowired
+    private ScratchDisk scratchDisk;
+
+    // Add timing data structures. Each instance belongs to one rendition of one
+    // job and is written by whichever pool thread runs that stage, so fields
+    // are volatile; the per-job map is fully populated before any task starts.
     private static class ProcessingTimes {
-        long transcodeTime;
-        long hlsTime;
-        long uploadTime;
+        volatile long transcodeTime;
+        volatile long hlsTime;
+        volatile long uploadTime;
         
         public long getTotal() {
             return transcodeTime + hlsTime + uploadTime;
         }
     }
-    private Map<String, ProcessingTimes> qualityTimings = new HashMap<>();
-    private Instant processingStartTime;
-    private long totalProcessingTime;
 
-    public String uploadAndProcess(MultipartFile file) throws IOException {
-        logger.info("Starting upload and processing for file: {}", file.getOriginalFilename());
-        processingStartTime = Instant.now();
-        qualityTimings.clear();
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("abr.processing.queue.depth", ingestScheduler,
+                        scheduler -> scheduler.getQueued())
+                .description("Jobs waiting for a processing worker")
+                .register(meterRegistry);
+        Gauge.builder("abr.processing.workers.active", videoProcessingExecutor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Processing workers running a job")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stores the uploaded source locally and in Minio, then queues it for
+     * processing. Returns as soon as the job is queued; progress is reported
+     * through {@link #getJob(String)}. Throws a {@link TaskRejectedException}
+     * before storing anything if {@code tenant} cannot queue another job.
+     */
+    public String uploadAndEnqueue(MultipartFile file, String tenant, JobPriority priority) throws IOException {
+        logger.info("Starting upload for file: {}", file.getOriginalFilename());
+        ingestScheduler.checkAdmission(tenant);
         
         String videoId = UUID.randomUUID().toString();
         String originalFilename = file.getOriginalFilename();
@@ -84,91 +175,818 @@ public class VideoService {
         uploadToMinio(tempFile.toFile(), videoId + "/original" + extension);
         logger.info("Uploaded original file to Minio");
 
-        // Process video with dynamic qualities
-        processVideo(tempFile.toFile(), videoId, extension);
-        
-        // Calculate total processing time
-        totalProcessingTime = Duration.between(processingStartTime, Instant.now()).toMillis();
-        
-        // Generate and log processing report
-        generateProcessingReport(videoId);
-        
-        logger.info("Completed video processing for videoId: {}", videoId);
+        submit(videoId, originalFilename, extension, null, tenant, priority);
         return videoId;
     }
 
-    private void uploadToMinio(File file, String objectName) {
-        logger.debug("Uploading file to Minio: {}", objectName);
+    /**
+     * Returns where the local copy of a source is kept while it is processed.
+     */
+    public Path getSourcePath(String videoId, String extension) {
+        return outputPath.resolve(videoId + extension);
+    }
+
+    /**
+     * Creates the job for a source that is already at
+     * {@link #getSourcePath(String, String)} and in Minio, and queues it.
+     * If the queue refuses it, a {@code TaskRejectedException} is thrown,
+     * the local source is deleted and no job is left behind.
+     */
+    public void submit(String videoId, String originalFilename, String extension, String sha256,
+                       String tenant, JobPriority priority) {
+        VideoJob job = jobStore.create(videoId, originalFilename, extension, sha256,
+                IngestScheduler.tenantOrDefault(tenant), priority);
+        try {
+            enqueue(job, getSourcePath(videoId, extension).toFile());
+        } catch (TaskRejectedException e) {
+            jobStore.remove(videoId);
+            deleteWorkingSet(videoId, extension);
+            throw e;
+        }
+    }
+
+    public Optional<VideoJob> getJob(String videoId) {
+        return jobStore.find(videoId);
+    }
+
+    /**
+     * Re-queues jobs that were still in flight when the application stopped.
+     * Jobs whose local source copy is gone are marked as failed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedJobs() {
+        for (VideoJob job : jobStore.findUnfinished()) {
+            File source = outputPath.resolve(job.getVideoId() + job.getExtension()).toFile();
+            if (!source.exists()) {
+                logger.warn("Source for interrupted job {} is missing, marking as failed", job.getVideoId());
+                jobStore.fail(job.getVideoId(), "Interrupted by restart and source file is missing");
+                continue;
+            }
+            logger.info("Resuming interrupted job {} (was {})", job.getVideoId(), job.getStatus());
+            jobStore.transition(job.getVideoId(), JobStatus.QUEUED);
+            try {
+                enqueue(job, source);
+            } catch (TaskRejectedException e) {
+                logger.warn("Processing queue is full, job {} not resumed", job.getVideoId());
+                jobStore.fail(job.getVideoId(), "Processing queue is full");
+                deleteWorkingSet(job.getVideoId(), job.getExtension());
+            }
+        }
+    }
+
+    private void enqueue(VideoJob job, File source) {
+        String videoId = job.getVideoId();
+        try {
+            ingestScheduler.submit(videoId, job.getTenant(), job.getPriority(),
+                    () -> runJob(videoId, source, job.getExtension()));
+        } catch (TaskRejectedException e) {
+            logger.error("Processing queue is full, rejecting videoId: {}", videoId);
+            throw e;
+        }
+    }
+
+    private void runJob(String videoId, File source, String extension) {
+        if (processRunner.isCancelled(videoId)) {
+            logger.info("Skipping cancelled videoId: {}", videoId);
+            jobStore.transition(videoId, JobStatus.CANCELLED);
+            processRunner.jobFinished(videoId);
+            deleteWorkingSet(videoId, extension);
+            return;
+        }
+        logger.info("Starting processing for videoId: {}", videoId);
+        Instant processingStartTime = Instant.now();
+        Map<String, ProcessingTimes> qualityTimings = new LinkedHashMap<>();
+        String outcome = "failed";
         try {
-            minioClient.putObject(PutObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(objectName)
-                    .stream(Files.newInputStream(file.toPath()), file.length(), -1)
-                    .build());
-            logger.info("Successfully uploaded file to Minio: {}", objectName);
+            // Process video with dynamic qualities
+            processVideo(source, videoId, extension, qualityTimings);
+
+            // Calculate total processing time
+            long totalProcessingTime = Duration.between(processingStartTime, Instant.now()).toMillis();
+
+            // Generate and log processing report
+            generateProcessingReport(videoId, qualityTimings, totalProcessingTime);
+
+            jobStore.transition(videoId, JobStatus.READY);
+            outcome = "ready";
+            logger.info("Completed video processing for videoId: {}", videoId);
         } catch (Exception e) {
-            logger.error("Error uploading file to Minio: {}", objectName, e);
-            throw new RuntimeException("Error uploading file to Minio", e);
+            if (processRunner.isCancelled(videoId)) {
+                logger.info("Processing cancelled for videoId: {}", videoId);
+                jobStore.transition(videoId, JobStatus.CANCELLED);
+                outcome = "cancelled";
+            } else {
+                logger.error("Video processing failed for videoId: {}. Error: {}", videoId, e.getMessage(), e);
+                jobStore.fail(videoId, e.getMessage());
+            }
+        } finally {
+            processRunner.jobFinished(videoId);
+            // READY means every artifact is in Minio; failed and cancelled
+            // jobs are not resumed, their source is in Minio too
+            deleteWorkingSet(videoId, extension);
+            scratchDisk.release(videoId);
+            recordStageMetrics(qualityTimings);
+            Timer.builder("abr.processing.jobs")
+                    .description("End-to-end processing time of a job")
+                    .tags("outcome", outcome, "pipeline", pipeline)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(Duration.between(processingStartTime, Instant.now()));
         }
     }
 
-    private void processVideo(File inputFile, String videoId, String extension) {
+    /**
+     * Stops processing of {@code videoId}: running ffmpeg processes are
+     * killed and the job ends as CANCELLED once its worker notices. Returns
+     * false if the job had already ended.
+     */
+    public boolean cancel(String videoId) {
+        VideoJob job = jobStore.find(videoId)
+                .orElseThrow(() -> new NoSuchElementException("Unknown video: " + videoId));
+        if (job.getStatus().isTerminal()) {
+            return false;
+        }
+        processRunner.cancel(videoId);
+        if (ingestScheduler.remove(videoId)) {
+            // Never started, so no worker will notice
+            logger.info("Cancelled queued videoId: {}", videoId);
+            jobStore.transition(videoId, JobStatus.CANCELLED);
+            processRunner.jobFinished(videoId);
+            deleteWorkingSet(videoId, job.getExtension());
+        }
+        return true;
+    }
+
+    /**
+     * Deletes everything a job wrote under {@code output/}: the source copy,
+     * intermediate renditions, the HLS tree, probe and trial-encode files
+     * and the local master playlist.
+     */
+    private void deleteWorkingSet(String videoId, String extension) {
+        try {
+            Files.deleteIfExists(getSourcePath(videoId, extension));
+            Files.deleteIfExists(outputPath.resolve(videoId + "_master.m3u8"));
+            List<Path> intermediates;
+            try (Stream<Path> files = Files.list(outputPath)) {
+                intermediates = files.filter(path -> path.getFileName().toString().startsWith(videoId + "_")).toList();
+            }
+            for (Path intermediate : intermediates) {
+                Files.deleteIfExists(intermediate);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to delete working files of videoId: {}", videoId, e);
+        }
+        deleteDirectory(outputPath.resolve(videoId));
+        logger.debug("Deleted working set of videoId: {}", videoId);
+    }
+
+    private void uploadToMinio(File file, String objectName) {
+        logger.debug("Uploading file to Minio: {}", objectName);
+        objectStorage.putFile(file.toPath(), objectName);
+        logger.info("Successfully uploaded file to Minio: {}", objectName);
+    }
+
+    private void processVideo(File inputFile, String videoId, String extension,
+                              Map<String, ProcessingTimes> qualityTimings) {
         logger.info("Starting video processing for videoId: {}", videoId);
         
         // Get applicable qualities based on input video
-        List<String> qualities = getApplicableQualities(inputFile.getAbsolutePath());
-        
+        jobStore.transition(videoId, JobStatus.PROBING);
+        Instant probeStart = Instant.now();
+        MediaInfo media = probeSource(videoId, inputFile);
+        reserveScratch(videoId, inputFile, media);
+        recordStage("probe", "all", Duration.between(probeStart, Instant.now()).toMillis());
+        // The trial encode of the ladder planner already counts as encoding
+        MasterPublication master;
+        encodeScheduler.jobStarted();
+        try {
+            master = encodeLadder(inputFile, videoId, media, qualityTimings);
+        } finally {
+            encodeScheduler.jobFinished();
+        }
+
+        // Create master playlist with all qualities including original
+        try {
+            jobStore.transition(videoId, JobStatus.UPLOADING);
+            publishMaster(master, true);
+        } catch (RuntimeException e) {
+            retractPlaylists(master);
+            throw e;
+        }
+    }
+
+    /**
+     * Plans the ladder and encodes it with the configured pipeline. Returns
+     * the master playlist to publish once all renditions are in Minio.
+     */
+    private MasterPublication encodeLadder(File inputFile, String videoId, MediaInfo media,
+                                           Map<String, ProcessingTimes> qualityTimings) {
+        Instant planStart = Instant.now();
+        LadderPlan ladder = planLadder(videoId, inputFile, media);
+        recordStage("plan", "all", Duration.between(planStart, Instant.now()).toMillis());
+        List<String> qualities = ladder.getQualities();
+
+        // Each rendition completes its future once its first playlist is in
+        // Minio; with progressive publishing the master goes out when all have
+        MasterPublication master = new MasterPublication(videoId, qualities, media);
+        Map<String, CompletableFuture<Void>> firstPublishes = new HashMap<>();
         for (String quality : qualities) {
-            logger.debug("Processing quality: {} for videoId: {}", quality, videoId);
-            qualityTimings.put(quality, new ProcessingTimes());
-            
-            if (quality.equals("original")) {
-                // Skip transcoding for original quality
-                String hlsOutputPath = outputPath.resolve(Paths.get(videoId, "hls", quality)).toString();
-                
-                // Create HLS chunks directly from original
-                Instant hlsStart = Instant.now();
-                createHlsChunks(inputFile.getAbsolutePath(), hlsOutputPath);
-                qualityTimings.get(quality).hlsTime = Duration.between(hlsStart, Instant.now()).toMillis();
-                
-                // Upload HLS chunks
-                Instant uploadStart = Instant.now();
-                uploadHlsChunksToMinio(hlsOutputPath, videoId + "/hls/" + quality);
-                qualityTimings.get(quality).uploadTime = Duration.between(uploadStart, Instant.now()).toMillis();
-                
-                continue;
+            firstPublishes.put(quality, new CompletableFuture<>());
+        }
+        if (progressivePublish) {
+            CompletableFuture.allOf(firstPublishes.values().toArray(new CompletableFuture<?>[0]))
+                    .thenRunAsync(() -> publishMaster(master, false), uploadExecutor)
+                    .exceptionally(e -> {
+                        logger.warn("Early master playlist publish failed for videoId: {}", videoId, e);
+                        return null;
+                    });
+        }
+
+        try {
+            jobStore.transition(videoId, JobStatus.TRANSCODING);
+            if (PIPELINE_SINGLE_PASS.equals(pipeline)) {
+                processLadder(inputFile, videoId, media, ladder, qualityTimings, firstPublishes);
+            } else if (PIPELINE_CHUNKED.equals(pipeline)) {
+                processChunkedLadder(inputFile, videoId, media, ladder, qualityTimings, firstPublishes);
+            } else {
+                processRenditions(inputFile, videoId, media, ladder, qualityTimings, firstPublishes);
+            }
+        } catch (RuntimeException e) {
+            retractPlaylists(master);
+            throw e;
+        }
+        return master;
+    }
+
+    /**
+     * Takes the playlists of a failed or cancelled job out of Minio. With
+     * progressive publishing the master and EVENT variant playlists are
+     * already out, and without them players would wait forever for a stream
+     * that never ends. No early master publish can follow. Uploaded segments
+     * stay in Minio but are no longer listed anywhere.
+     */
+    private void retractPlaylists(MasterPublication master) {
+        synchronized (master) {
+            master.finalized = true;
+        }
+        List<String> playlists = new ArrayList<>();
+        playlists.add(master.videoId + "/master.m3u8");
+        for (String quality : master.qualities) {
+            playlists.add(master.videoId + "/hls/" + quality + "/playlist.m3u8");
+        }
+        for (String playlist : playlists) {
+            try {
+                objectStorage.removeObject(playlist);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to remove playlist {} of unfinished videoId: {}", playlist, master.videoId, e);
+            }
+            segmentCache.invalidate(playlist);
+        }
+        jobStore.clearPlayable(master.videoId);
+        logger.info("Removed the published playlists of unfinished videoId: {}", master.videoId);
+    }
+
+    private static class MasterPublication {
+        final String videoId;
+        final List<String> qualities;
+        final MediaInfo media;
+        // CODECS per rendition; probed once from its first segment
+        final Map<String, String> codecs = new HashMap<>();
+        boolean finalized;
+
+        MasterPublication(String videoId, List<String> qualities, MediaInfo media) {
+            this.videoId = videoId;
+            this.qualities = qualities;
+            this.media = media;
+        }
+    }
+
+    private void reserveScratch(String videoId, File inputFile, MediaInfo media) {
+        try {
+            scratchDisk.reserve(videoId, scratchDisk.estimate(media, inputFile.length()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for scratch disk", e);
+        }
+    }
+
+    /**
+     * Returns the metadata record for the source, probing it only if no
+     * record was stored by an earlier attempt at this job.
+     */
+    private MediaInfo probeSource(String videoId, File inputFile) {
+        Path metadataFile = outputPath.resolve(Paths.get(videoId, "metadata.json"));
+        MediaInfo media = mediaProbe.probeSource(inputFile.getAbsolutePath(), metadataFile);
+        if (Files.exists(metadataFile)) {
+            uploadToMinio(metadataFile.toFile(), videoId + "/metadata.json");
+        }
+        return media;
+    }
+
+    /**
+     * Chooses the renditions and their encoder settings, per title when
+     * enabled and the source could be probed.
+     */
+    private LadderPlan planLadder(String videoId, File inputFile, MediaInfo media) {
+        List<String> candidates = getApplicableQualities(media);
+        if (!ladderPlanner.isEnabled() || !media.hasVideo()) {
+            return ladderPlanner.fixedPlan(candidates);
+        }
+        LinkedHashMap<String, Long> pixels = new LinkedHashMap<>();
+        for (String quality : candidates) {
+            pixels.put(quality, getPixelsForQuality(quality, media));
+        }
+        return ladderPlanner.plan(videoId, inputFile.getAbsolutePath(), outputPath.resolve(videoId), media, pixels);
+    }
+
+    /**
+     * Writes the master playlist. An early publish that loses the race with
+     * the final one is skipped so it never overwrites the final playlist.
+     */
+    private void publishMaster(MasterPublication master, boolean isFinal) {
+        synchronized (master) {
+            if (master.finalized) {
+                return;
             }
+            createMasterPlaylist(master);
+            master.finalized = isFinal;
+        }
+        jobStore.markPlayable(master.videoId);
+    }
+
+    /**
+     * Decodes the source once and encodes the whole ladder in a single ffmpeg
+     * process, writing HLS variant playlists and segments directly.
+     */
+    private void processLadder(File inputFile, String videoId, MediaInfo media, LadderPlan ladder,
+                               Map<String, ProcessingTimes> qualityTimings,
+                               Map<String, CompletableFuture<Void>> firstPublishes) {
+        List<String> qualities = ladder.getQualities();
+        String hlsRoot = outputPath.resolve(Paths.get(videoId, "hls")).toString();
+
+        // The ladder is one process, so its encode time is reported on its own row
+        ProcessingTimes ladderTimes = new ProcessingTimes();
+        qualityTimings.put("ladder", ladderTimes);
+        for (String quality : qualities) {
+            qualityTimings.put(quality, new ProcessingTimes());
+            jobStore.updateRendition(videoId, quality, JobStatus.TRANSCODING);
+        }
 
-            String outputFilename = outputPath.resolve(videoId + "_" + quality + ".mp4").toString();
-            String hlsOutputPath = outputPath.resolve(Paths.get(videoId, "hls", quality)).toString();
+        // Segments are uploaded as ffmpeg closes them, so by the time the
+        // ladder finishes only the tail of each rendition is left
+        Map<String, SegmentUploader.Session> sessions = openLadderSessions(videoId, hlsRoot, qualities, firstPublishes,
+                hlsPackaging.isLowLatency());
 
-            // Rest of the existing processing logic
+        try (EncodeScheduler.Lease lease = encodeScheduler.acquire(1.0)) {
             Instant transcodeStart = Instant.now();
-            transcodeVideo(inputFile.getAbsolutePath(), outputFilename, quality);
-            qualityTimings.get(quality).transcodeTime = Duration.between(transcodeStart, Instant.now()).toMillis();
+            createHlsLadder(videoId, inputFile.getAbsolutePath(), hlsRoot, ladder, media, lease.getThreads());
+            ladderTimes.transcodeTime = Duration.between(transcodeStart, Instant.now()).toMillis();
+        } catch (InterruptedException e) {
+            sessions.values().forEach(SegmentUploader.Session::abandon);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for encode cores", e);
+        } catch (RuntimeException e) {
+            sessions.values().forEach(SegmentUploader.Session::abandon);
+            throw e;
+        }
+
+        uploadLadder(videoId, qualities, sessions, qualityTimings);
+    }
+
+    /**
+     * Encodes the ladder for segment-aligned chunks of the source in
+     * parallel, each chunk in its own ffmpeg process with a slice of the core
+     * budget, and stitches the outputs into continuous renditions. Wall-clock
+     * time then scales with the number of cores rather than with the length
+     * of the source. Chunks are appended in order as they finish, so with
+     * progressive publishing the start of the video is playable while later
+     * chunks are still encoding.
+     *
+     * <p>Audio is encoded once for the whole source first and cut into one
+     * piece per chunk, which the chunk encodes copy into their segments.
+     * Encoding it per chunk would restart the AAC encoder at every boundary
+     * and leave a priming gap at each join.
+     */
+    private void processChunkedLadder(File inputFile, String videoId, MediaInfo media, LadderPlan ladder,
+                                      Map<String, ProcessingTimes> qualityTimings,
+                                      Map<String, CompletableFuture<Void>> firstPublishes) {
+        List<ChunkPlanner.Chunk> chunks = chunkPlanner.plan(media);
+        if (chunks.size() < 2) {
+            logger.info("Source for videoId: {} is too short to split, encoding it in a single pass", videoId);
+            processLadder(inputFile, videoId, media, ladder, qualityTimings, firstPublishes);
+            return;
+        }
+        if (hlsPackaging.isSingleFile()) {
+            logger.info("Chunked pipeline writes a file per segment for videoId: {}, ignoring single-file packaging",
+                    videoId);
+        }
+        if (hlsPackaging.isLowLatency()) {
+            logger.info("Chunked pipeline publishes whole chunks for videoId: {}, ignoring low-latency packaging",
+                    videoId);
+        }
+        List<String> qualities = ladder.getQualities();
+        String hlsRoot = outputPath.resolve(Paths.get(videoId, "hls")).toString();
+        Path chunksRoot = outputPath.resolve(Paths.get(videoId, "chunks"));
+
+        ProcessingTimes ladderTimes = new ProcessingTimes();
+        qualityTimings.put("ladder", ladderTimes);
+        for (String quality : qualities) {
+            qualityTimings.put(quality, new ProcessingTimes());
+            jobStore.updateRendition(videoId, quality, JobStatus.TRANSCODING);
+        }
+
+        Map<String, SegmentUploader.Session> sessions = openLadderSessions(videoId, hlsRoot, qualities, firstPublishes,
+                false);
+        ChunkStitcher stitcher = new ChunkStitcher(Paths.get(hlsRoot), chunksRoot, qualities, chunks.size());
+
+        // Each chunk leases the share of the cores it gets while the chunk
+        // pool is busy with this job
+        double share = 1.0 / Math.min(chunkWorkers, chunks.size());
+        AtomicBoolean failed = new AtomicBoolean();
+        Instant transcodeStart = Instant.now();
+        List<Double> audioStarts;
+        try {
+            audioStarts = media.hasAudio()
+                    ? encodeChunkAudio(videoId, inputFile, chunks, chunksRoot.resolve("audio"), media, share)
+                    : null;
+        } catch (RuntimeException e) {
+            sessions.values().forEach(SegmentUploader.Session::abandon);
+            throw e;
+        }
+        List<CompletableFuture<Void>> encodes = new ArrayList<>();
+        for (ChunkPlanner.Chunk chunk : chunks) {
+            encodes.add(CompletableFuture.runAsync(() -> {
+                if (failed.get()) {
+                    // Another chunk failed, the job is lost anyway
+                    return;
+                }
+                try {
+                    encodeChunk(videoId, inputFile, chunk, chunksRoot.resolve(String.valueOf(chunk.getIndex())),
+                            audioStarts == null ? null : chunksRoot.resolve("audio"), audioStarts, ladder, media,
+                            share);
+                    stitcher.complete(chunk.getIndex());
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }, chunkEncodeExecutor));
+        }
+        try {
+            joinAll(encodes);
+        } catch (RuntimeException e) {
+            sessions.values().forEach(SegmentUploader.Session::abandon);
+            throw e;
+        }
+        ladderTimes.transcodeTime = Duration.between(transcodeStart, Instant.now()).toMillis();
+        deleteDirectory(chunksRoot);
+        logger.info("Encoded {} chunks for videoId: {} in {} ms", chunks.size(), videoId, ladderTimes.transcodeTime);
+
+        uploadLadder(videoId, qualities, sessions, qualityTimings);
+    }
+
+    private void encodeChunk(String videoId, File inputFile, ChunkPlanner.Chunk chunk, Path chunkRoot,
+                             Path audioRoot, List<Double> audioStarts, LadderPlan ladder, MediaInfo media,
+                             double share) {
+        try (EncodeScheduler.Lease lease = encodeScheduler.acquire(share)) {
+            logger.debug("Encoding chunk {} at {}s with {} threads", chunk.getIndex(), chunk.getStart(),
+                    lease.getThreads());
+            createHlsLadderChunk(videoId, inputFile.getAbsolutePath(), chunkRoot.toString(), chunk,
+                    audioRoot == null ? null : audioRoot.resolve("audio" + chunk.getIndex() + ".aac").toString(),
+                    audioStarts == null ? 0 : audioStarts.get(chunk.getIndex()), ladder, media, lease.getThreads());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for encode cores", e);
+        }
+    }
 
+    /**
+     * Encodes the audio of the whole source to AAC in one pass and splits it
+     * at the chunk boundaries into {@code audioRoot/audio<index>.aac}. AAC
+     * frames are never cut, so each piece starts at the first frame at or
+     * after its boundary; the returned list holds those start times, which
+     * the chunk encodes use to place their piece. The audio is padded with
+     * silence to the length of the source so every chunk gets a piece.
+     */
+    private List<Double> encodeChunkAudio(String videoId, File inputFile, List<ChunkPlanner.Chunk> chunks,
+                                          Path audioRoot, MediaInfo media, double share) {
+        StringBuilder boundaries = new StringBuilder();
+        for (ChunkPlanner.Chunk chunk : chunks.subList(1, chunks.size())) {
+            if (boundaries.length() > 0) {
+                boundaries.append(',');
+            }
+            boundaries.append(String.format(Locale.ROOT, "%.6f", chunk.getStart()));
+        }
+        Path list = audioRoot.resolve("audio.csv");
+        try (EncodeScheduler.Lease lease = encodeScheduler.acquire(share)) {
+            Files.createDirectories(audioRoot);
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    "ffmpeg", "-y", "-loglevel", "error", "-i", inputFile.getAbsolutePath(),
+                    "-map", "0:a:0", "-vn", "-af", "apad",
+                    "-t", String.format(Locale.ROOT, "%.6f", media.getDurationSeconds()),
+                    "-c:a", "aac", "-threads", String.valueOf(lease.getThreads()),
+                    "-f", "segment", "-segment_format", "adts", "-segment_times", boundaries.toString(),
+                    "-segment_list", list.toString(), "-segment_list_type", "csv",
+                    audioRoot.resolve("audio%d.aac").toString()));
+            processRunner.runFfmpeg(videoId, "audio", command, media.getDurationSeconds());
+
+            // One line per piece: file name, start and end time
+            List<Double> starts = new ArrayList<>();
+            for (String line : Files.readAllLines(list)) {
+                if (!line.isBlank()) {
+                    starts.add(Double.parseDouble(line.split(",")[1]));
+                }
+            }
+            if (starts.size() != chunks.size()) {
+                throw new RuntimeException("Audio of videoId " + videoId + " split into " + starts.size()
+                        + " pieces for " + chunks.size() + " chunks");
+            }
+            return starts;
+        } catch (IOException e) {
+            logger.error("Failed to split audio for videoId: {}", videoId, e);
+            throw new RuntimeException("Failed to split audio for videoId: " + videoId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for encode cores", e);
+        }
+    }
+
+    private Map<String, SegmentUploader.Session> openLadderSessions(String videoId, String hlsRoot,
+                                                                    List<String> qualities,
+                                                                    Map<String, CompletableFuture<Void>> firstPublishes,
+                                                                    boolean lowLatency) {
+        Map<String, SegmentUploader.Session> sessions = new HashMap<>();
+        for (String quality : qualities) {
+            SegmentUploader.Session session = segmentUploader.open(Paths.get(hlsRoot, quality),
+                    videoId + "/hls/" + quality, lowLatency);
+            session.firstPublish().thenRun(() -> firstPublishes.get(quality).complete(null));
+            sessions.put(quality, session);
+        }
+        return sessions;
+    }
+
+    private void uploadLadder(String videoId, List<String> qualities, Map<String, SegmentUploader.Session> sessions,
+                              Map<String, ProcessingTimes> qualityTimings) {
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for (String quality : qualities) {
+            ProcessingTimes times = qualityTimings.get(quality);
+            uploads.add(CompletableFuture.runAsync(
+                    () -> uploadRendition(videoId, quality, sessions.get(quality), times), uploadExecutor));
+        }
+        joinAll(uploads);
+    }
+
+    /**
+     * Appends finished chunks to the rendition playlists in source order.
+     * Segments are renumbered into one sequence per rendition and moved next
+     * to the playlist before it is rewritten, so the segment watcher only
+     * ever sees playlists whose segments exist. All renditions of a chunk
+     * come from the same encode, so segment boundaries line up across the
+     * ladder. With fMP4 segments each chunk keeps its own initialization
+     * segment, announced by an EXT-X-MAP tag ahead of the chunk's segments.
+     */
+    private class ChunkStitcher {
+        private final Path hlsRoot;
+        private final Path chunksRoot;
+        private final List<String> qualities;
+        private final boolean[] finished;
+        private final Map<String, StringBuilder> segments = new HashMap<>();
+        private final Map<String, Integer> segmentCounts = new HashMap<>();
+        private final Map<String, Double> maxDurations = new HashMap<>();
+        private int nextChunk;
+
+        ChunkStitcher(Path hlsRoot, Path chunksRoot, List<String> qualities, int chunkCount) {
+            this.hlsRoot = hlsRoot;
+            this.chunksRoot = chunksRoot;
+            this.qualities = qualities;
+            this.finished = new boolean[chunkCount];
+            for (String quality : qualities) {
+                segments.put(quality, new StringBuilder());
+                segmentCounts.put(quality, 0);
+                maxDurations.put(quality, 0.0);
+            }
+        }
+
+        synchronized void complete(int index) {
+            finished[index] = true;
+            while (nextChunk < finished.length && finished[nextChunk]) {
+                append(nextChunk);
+                nextChunk++;
+            }
+        }
+
+        private void append(int index) {
+            Path chunkRoot = chunksRoot.resolve(String.valueOf(index));
+            boolean last = index == finished.length - 1;
+            try {
+                for (String quality : qualities) {
+                    Path source = chunkRoot.resolve(quality);
+                    Path target = hlsRoot.resolve(quality);
+                    String extinf = null;
+                    for (String line : Files.readAllLines(source.resolve("playlist.m3u8"))) {
+                        String trimmed = line.trim();
+                        String map = HlsPackaging.getMapUri(trimmed);
+                        if (map != null) {
+                            String name = "init" + index + ".mp4";
+                            Files.move(source.resolve(map), target.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                            segments.get(quality).append("#EXT-X-MAP:URI=\"").append(name).append("\"\n");
+                        } else if (trimmed.startsWith("#EXTINF:")) {
+                            extinf = trimmed;
+                            double duration = Double.parseDouble(trimmed.substring(8, trimmed.indexOf(',')));
+                            maxDurations.merge(quality, duration, Math::max);
+                        } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                            int sequence = segmentCounts.merge(quality, 1, Integer::sum) - 1;
+                            String name = "playlist" + sequence + hlsPackaging.getSegmentExtension();
+                            Files.move(source.resolve(trimmed), target.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                            segments.get(quality).append(extinf).append('\n').append(name).append('\n');
+                        }
+                    }
+                    writePlaylist(quality, last);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to stitch chunk {} into {}", index, hlsRoot, e);
+                throw new RuntimeException("Failed to stitch chunk " + index, e);
+            }
+            deleteDirectory(chunkRoot);
+            logger.debug("Stitched chunk {} of {} into {}", index + 1, finished.length, hlsRoot);
+        }
+
+        private void writePlaylist(String quality, boolean last) throws IOException {
+            StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:")
+                    .append(hlsPackaging.getPlaylistVersion(false)).append('\n');
+            playlist.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxDurations.get(quality))).append('\n');
+            playlist.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+            if (progressivePublish) {
+                playlist.append("#EXT-X-PLAYLIST-TYPE:EVENT\n");
+            }
+            playlist.append(segments.get(quality));
+            if (last) {
+                playlist.append("#EXT-X-ENDLIST\n");
+            }
+            // Replaced atomically so the segment watcher never reads half a playlist
+            Path file = hlsRoot.resolve(quality).resolve("playlist.m3u8");
+            Path temp = file.resolveSibling("playlist.m3u8.tmp");
+            Files.write(temp, playlist.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            logger.warn("Failed to delete directory: {}", directory, e);
+        }
+    }
+
+    /**
+     * Encodes each rendition in its own ffmpeg processes, concurrently. Each
+     * one leases a share of the core budget proportional to its output pixel
+     * count.
+     */
+    private void processRenditions(File inputFile, String videoId, MediaInfo media, LadderPlan ladder,
+                                   Map<String, ProcessingTimes> qualityTimings,
+                                   Map<String, CompletableFuture<Void>> firstPublishes) {
+        List<String> qualities = ladder.getQualities();
+        Map<String, Double> shares = getEncodeShares(qualities, media);
+        for (String quality : qualities) {
+            qualityTimings.put(quality, new ProcessingTimes());
+        }
+
+        List<CompletableFuture<Void>> renditions = new ArrayList<>();
+        for (String quality : qualities) {
+            ProcessingTimes times = qualityTimings.get(quality);
+            // Upload of a finished rendition runs on the upload pool so it
+            // overlaps with the encodes still in progress
+            renditions.add(CompletableFuture
+                    .supplyAsync(() -> encodeRendition(inputFile, videoId, quality, ladder.getRendition(quality),
+                            media.getDurationSeconds(), shares.get(quality), times, firstPublishes.get(quality)),
+                            renditionExecutor)
+                    .thenAcceptAsync(session -> uploadRendition(videoId, quality, session, times),
+                            uploadExecutor));
+        }
+        joinAll(renditions);
+    }
+
+    private void joinAll(List<CompletableFuture<Void>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Transcodes and packages one rendition. Segments are uploaded while the
+     * HLS step runs; the returned session finishes the upload.
+     */
+    private SegmentUploader.Session encodeRendition(File inputFile, String videoId, String quality,
+                                                    LadderPlan.Rendition settings, double duration, double share,
+                                                    ProcessingTimes times, CompletableFuture<Void> firstPublish) {
+        logger.debug("Processing quality: {} for videoId: {}", quality, videoId);
+        Path hlsOutputPath = outputPath.resolve(Paths.get(videoId, "hls", quality));
+
+        try (EncodeScheduler.Lease lease = encodeScheduler.acquire(share)) {
+            String hlsInput = inputFile.getAbsolutePath();
+            // The HLS step encodes "original"; scaled renditions are encoded
+            // once by the transcode step and only repackaged
+            LadderPlan.Rendition hlsSettings = settings;
+            if (!quality.equals("original")) {
+                // Original quality skips transcoding and is chunked directly
+                hlsInput = getIntermediatePath(videoId, quality);
+
+                jobStore.updateRendition(videoId, quality, JobStatus.TRANSCODING);
+                Instant transcodeStart = Instant.now();
+                transcodeVideo(videoId, inputFile.getAbsolutePath(), hlsInput, quality, settings, duration,
+                        lease.getThreads());
+                times.transcodeTime = Duration.between(transcodeStart, Instant.now()).toMillis();
+                hlsSettings = null;
+            }
+
+            jobStore.updateRendition(videoId, quality, JobStatus.PACKAGING);
+            SegmentUploader.Session session = segmentUploader.open(hlsOutputPath, videoId + "/hls/" + quality,
+                    hlsPackaging.isLowLatency());
+            session.firstPublish().thenRun(() -> firstPublish.complete(null));
             Instant hlsStart = Instant.now();
-            createHlsChunks(outputFilename, hlsOutputPath);
-            qualityTimings.get(quality).hlsTime = Duration.between(hlsStart, Instant.now()).toMillis();
+            try {
+                createHlsChunks(videoId, quality, hlsInput, hlsOutputPath.toString(), hlsSettings, duration,
+                        lease.getThreads());
+            } catch (RuntimeException e) {
+                session.abandon();
+                throw e;
+            }
+            times.hlsTime = Duration.between(hlsStart, Instant.now()).toMillis();
+            return session;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for encode cores", e);
+        }
+    }
 
-            Instant uploadStart = Instant.now();
-            uploadToMinio(new File(outputFilename), videoId + "/" + new File(outputFilename).getName());
-            uploadHlsChunksToMinio(hlsOutputPath, videoId + "/hls/" + quality);
-            qualityTimings.get(quality).uploadTime = Duration.between(uploadStart, Instant.now()).toMillis();
+    private void uploadRendition(String videoId, String quality, SegmentUploader.Session session,
+                                 ProcessingTimes times) {
+        jobStore.updateRendition(videoId, quality, JobStatus.UPLOADING);
+        Instant uploadStart = Instant.now();
+        File intermediate = new File(getIntermediatePath(videoId, quality));
+        if (intermediate.exists()) {
+            uploadToMinio(intermediate, videoId + "/" + intermediate.getName());
+            // Only the HLS step read it, and it is in Minio now
+            if (!intermediate.delete()) {
+                logger.warn("Failed to delete intermediate file: {}", intermediate);
+            }
         }
+        session.finish();
+        times.uploadTime = Duration.between(uploadStart, Instant.now()).toMillis();
+        jobStore.updateRendition(videoId, quality, JobStatus.READY);
+    }
 
-        // Create master playlist with all qualities including original
-        createMasterPlaylist(videoId, qualities);
+    private String getIntermediatePath(String videoId, String quality) {
+        return outputPath.resolve(videoId + "_" + quality + ".mp4").toString();
     }
 
-    private void transcodeVideo(String inputPath, String outputPath, String quality) {
-        // Use FFmpeg to transcode video with optimization flags
-        String command = String.format("ffmpeg -i %s -vf scale=%s -c:v libx264 -preset ultrafast -crf 35 -c:a copy %s",
-                inputPath, getScaleForQuality(quality), outputPath);
-        executeCommand(command);
+    private Map<String, Double> getEncodeShares(List<String> qualities, MediaInfo media) {
+        Map<String, Long> pixels = new HashMap<>();
+        long totalPixels = 0;
+        for (String quality : qualities) {
+            long count = getPixelsForQuality(quality, media);
+            pixels.put(quality, count);
+            totalPixels += count;
+        }
+        Map<String, Double> shares = new HashMap<>();
+        for (String quality : qualities) {
+            shares.put(quality, (double) pixels.get(quality) / totalPixels);
+        }
+        return shares;
+    }
+
+    private long getPixelsForQuality(String quality, MediaInfo media) {
+        if (quality.equals("original")) {
+            return media.hasVideo() ? (long) media.getWidth() * media.getHeight() : 1920L * 1080L;
+        }
+        String[] resolution = getResolutionForQuality(quality).split("x");
+        return Long.parseLong(resolution[0]) * Long.parseLong(resolution[1]);
     }
 
-    private void createHlsChunks(String inputPath, String outputPath) {
+    private void transcodeVideo(String videoId, String inputPath, String outputPath, String quality,
+                                LadderPlan.Rendition settings, double duration, int threads) {
+        // Keyframes on segment boundaries let the HLS step copy the video
+        List<String> command = new ArrayList<>(Arrays.asList(
+                "ffmpeg", "-y", "-i", inputPath, "-vf", "scale=" + getScaleForQuality(quality),
+                "-c:v", "libx264", "-threads", String.valueOf(threads),
+                "-force_key_frames", hlsPackaging.getKeyframeExpression()));
+        command.addAll(settings.toEncoderArguments(""));
+        command.addAll(Arrays.asList("-c:a", "copy", outputPath));
+        processRunner.runFfmpeg(videoId, "transcode-" + quality, command, duration);
+    }
+
+    /**
+     * Packages {@code inputPath} as HLS, encoding it with {@code settings},
+     * or copying the video if {@code settings} is null.
+     */
+    private void createHlsChunks(String videoId, String quality, String inputPath, String outputPath,
+                                 LadderPlan.Rendition settings, double duration, int threads) {
         // Create output directory if it doesn't exist
         File outputDir = new File(outputPath);
         if (!outputDir.exists()) {
@@ -180,76 +998,258 @@ public class VideoService {
         }
 
         // Use FFmpeg to create HLS chunks
-        String command = String.format("ffmpeg -i %s -hls_time 10 -hls_list_size 0 %s/playlist.m3u8",
-                inputPath, outputPath);
-        executeCommand(command);
+        List<String> command = new ArrayList<>(Arrays.asList(
+                "ffmpeg", "-y", "-i", inputPath, "-threads", String.valueOf(threads)));
+        if (settings == null) {
+            command.addAll(Arrays.asList("-c:v", "copy"));
+        } else {
+            command.addAll(Arrays.asList("-c:v", "libx264", "-force_key_frames", hlsPackaging.getKeyframeExpression()));
+            command.addAll(settings.toEncoderArguments(""));
+        }
+        command.addAll(Arrays.asList("-c:a", "aac", "-hls_time", hlsPackaging.getHlsTime(), "-hls_list_size", "0"));
+        command.addAll(hlsPackaging.getMuxerArguments(outputPath, "playlist", hlsPackaging.isSingleFile()));
+        if (progressivePublish) {
+            command.addAll(Arrays.asList("-hls_playlist_type", "event"));
+        }
+        command.add(outputPath + "/playlist.m3u8");
+        processRunner.runFfmpeg(videoId, "hls-" + quality, command, duration);
+    }
+
+    private void createHlsLadder(String videoId, String inputPath, String hlsRoot, LadderPlan ladder, MediaInfo media,
+                                 int threads) {
+        createVariantDirectories(hlsRoot, ladder.getQualities());
+
+        List<String> command = new ArrayList<>(Arrays.asList(
+                "ffmpeg", "-y", "-loglevel", "error", "-i", inputPath));
+        command.addAll(getLadderEncodeArguments(ladder, media.hasAudio() ? "0:a:0" : null, "aac", threads));
+        command.addAll(Arrays.asList("-f", "hls", "-hls_time", hlsPackaging.getHlsTime(), "-hls_list_size", "0"));
+        command.addAll(hlsPackaging.getMuxerArguments(hlsRoot + "/%v", "playlist", hlsPackaging.isSingleFile()));
+        if (progressivePublish) {
+            command.addAll(Arrays.asList("-hls_playlist_type", "event"));
+        }
+        command.add(hlsRoot + "/%v/playlist.m3u8");
+        processRunner.runFfmpeg(videoId, "ladder", command, media.getDurationSeconds());
+    }
+
+    /**
+     * Encodes the whole ladder for one chunk of the source into
+     * {@code chunkRoot}, copying in the chunk's piece of the audio encode
+     * if the source has audio. Timestamps are offset by the chunk start so
+     * the stitched segments play back as one continuous stream.
+     */
+    private void createHlsLadderChunk(String videoId, String inputPath, String chunkRoot, ChunkPlanner.Chunk chunk,
+                                      String audioPath, double audioStart, LadderPlan ladder, MediaInfo media,
+                                      int threads) {
+        createVariantDirectories(chunkRoot, ladder.getQualities());
+
+        String start = String.format(Locale.ROOT, "%.6f", chunk.getStart());
+        List<String> command = new ArrayList<>(Arrays.asList("ffmpeg", "-y", "-loglevel", "error", "-ss", start));
+        if (chunk.getDuration() > 0) {
+            // On the input, so it only limits the video
+            command.addAll(Arrays.asList("-t", String.format(Locale.ROOT, "%.6f", chunk.getDuration())));
+        }
+        command.addAll(Arrays.asList("-i", inputPath));
+        if (audioPath != null) {
+            // The piece's timestamps start at zero; shift them to where its
+            // first frame sits relative to the chunk start
+            command.addAll(Arrays.asList(
+                    "-itsoffset", String.format(Locale.ROOT, "%.6f", audioStart - chunk.getStart()),
+                    "-i", audioPath));
+        }
+        command.addAll(getLadderEncodeArguments(ladder, audioPath != null ? "1:a:0" : null, "copy", threads));
+        if (audioPath != null && hlsPackaging.isFmp4()) {
+            command.addAll(Arrays.asList("-bsf:a", "aac_adtstoasc"));
+        }
+        // Chunks are stitched segment by segment, so they are never single files
+        command.addAll(Arrays.asList(
+                "-output_ts_offset", start,
+                "-f", "hls", "-hls_time", hlsPackaging.getHlsTime(), "-hls_list_size", "0",
+                "-hls_playlist_type", "vod"));
+        command.addAll(hlsPackaging.getMuxerArguments(chunkRoot + "/%v", "segment", false));
+        command.add(chunkRoot + "/%v/playlist.m3u8");
+        double duration = chunk.getDuration() > 0
+                ? chunk.getDuration() : Math.max(0, media.getDurationSeconds() - chunk.getStart());
+        processRunner.runFfmpeg(videoId, "chunk-" + chunk.getIndex(), command, duration);
+    }
+
+    private void createVariantDirectories(String root, List<String> qualities) {
+        for (String quality : qualities) {
+            File variantDir = new File(root, quality);
+            if (!variantDir.exists() && !variantDir.mkdirs()) {
+                logger.error("Failed to create output directory: {}", variantDir);
+                throw new RuntimeException("Failed to create output directory: " + variantDir);
+            }
+        }
+    }
+
+    /**
+     * Returns the filter graph, stream mapping and encoder options that
+     * produce every rendition of the ladder from one decode of the input.
+     * Every rendition carries {@code audioStream} with {@code audioCodec},
+     * or no audio if {@code audioStream} is null.
+     */
+    private List<String> getLadderEncodeArguments(LadderPlan ladder, String audioStream, String audioCodec,
+                                                  int threads) {
+        boolean hasAudio = audioStream != null;
+        List<String> qualities = ladder.getQualities();
+        // split the decoded source once and scale each branch; "original" is
+        // mapped straight from its split output
+        StringBuilder filterGraph = new StringBuilder("[0:v]split=").append(qualities.size());
+        for (int i = 0; i < qualities.size(); i++) {
+            filterGraph.append("[v").append(i).append("]");
+        }
+        List<String> videoLabels = new ArrayList<>();
+        for (int i = 0; i < qualities.size(); i++) {
+            String quality = qualities.get(i);
+            if (quality.equals("original")) {
+                videoLabels.add("[v" + i + "]");
+            } else {
+                filterGraph.append(";[v").append(i).append("]scale=").append(getScaleForQuality(quality))
+                        .append("[s").append(i).append("]");
+                videoLabels.add("[s" + i + "]");
+            }
+        }
+
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-filter_complex", filterGraph.toString(), "-threads", String.valueOf(threads)));
+        StringBuilder streamMap = new StringBuilder();
+        for (int i = 0; i < qualities.size(); i++) {
+            arguments.add("-map");
+            arguments.add(videoLabels.get(i));
+            if (hasAudio) {
+                arguments.add("-map");
+                arguments.add(audioStream);
+            }
+            if (streamMap.length() > 0) {
+                streamMap.append(' ');
+            }
+            streamMap.append("v:").append(i);
+            if (hasAudio) {
+                streamMap.append(",a:").append(i);
+            }
+            streamMap.append(",name:").append(qualities.get(i));
+        }
+
+        // Keyframes are forced on segment boundaries so renditions stay aligned
+        // for switching. Each rendition gets the encoder settings of the plan.
+        arguments.addAll(Arrays.asList("-c:v", "libx264", "-force_key_frames", hlsPackaging.getKeyframeExpression()));
+        for (int i = 0; i < qualities.size(); i++) {
+            arguments.addAll(ladder.getRendition(qualities.get(i)).toEncoderArguments(":v:" + i));
+        }
+        if (hasAudio) {
+            arguments.addAll(Arrays.asList("-c:a", audioCodec));
+        }
+        arguments.addAll(Arrays.asList("-var_stream_map", streamMap.toString()));
+        return arguments;
     }
 
-    private void createMasterPlaylist(String videoId, List<String> qualities) {
+    /**
+     * Writes the master playlist. BANDWIDTH is the peak and AVERAGE-BANDWIDTH
+     * the mean bit rate of the segments each rendition has so far, and CODECS
+     * comes from probing its first segment, so players choose renditions on
+     * what was actually encoded.
+     */
+    private void createMasterPlaylist(MasterPublication master) {
+        String videoId = master.videoId;
         logger.info("Creating master playlist for videoId: {}", videoId);
         StringBuilder masterPlaylist = new StringBuilder("#EXTM3U\n");
         
-        for (String quality : qualities) {
+        for (String quality : master.qualities) {
             logger.debug("Adding quality {} to master playlist", quality);
-            if (quality.equals("original")) {
-                // For original quality, we'll need to get its actual resolution and bandwidth
-                String[] dimensions = getVideoDimensions(outputPath.resolve(videoId + "/hls/original/playlist.m3u8").toString());
-                if (dimensions != null) {
-                    int width = Integer.parseInt(dimensions[0]);
-                    int height = Integer.parseInt(dimensions[1]);
-                    masterPlaylist.append(String.format("#EXT-X-STREAM-INF:BANDWIDTH=%d,RESOLUTION=%dx%d\n",
-                            getBandwidthForResolution(width, height), width, height));
-                } else {
-                    // Fallback if we can't get dimensions
-                    masterPlaylist.append("#EXT-X-STREAM-INF:BANDWIDTH=8000000,RESOLUTION=1920x1080\n");
-                }
-            } else {
-                masterPlaylist.append(String.format("#EXT-X-STREAM-INF:BANDWIDTH=%d,RESOLUTION=%s\n",
-                        getBandwidthForQuality(quality), getResolutionForQuality(quality)));
+            Path renditionPath = outputPath.resolve(Paths.get(videoId, "hls", quality));
+            RenditionBitrates bitrates = measureRendition(renditionPath);
+            if (bitrates == null) {
+                logger.warn("No segments for quality {} of videoId: {}, leaving it out of the master playlist",
+                        quality, videoId);
+                continue;
+            }
+            String resolution = quality.equals("original")
+                    ? master.media.getWidth() + "x" + master.media.getHeight()
+                    : getResolutionForQuality(quality);
+            masterPlaylist.append(String.format("#EXT-X-STREAM-INF:BANDWIDTH=%d,AVERAGE-BANDWIDTH=%d,RESOLUTION=%s",
+                    bitrates.peak, bitrates.average, resolution));
+            // fMP4 fragments carry no codec configuration, their init segment does
+            String probed = bitrates.init != null ? bitrates.init : bitrates.firstSegment;
+            String codecs = master.codecs.computeIfAbsent(quality,
+                    key -> mediaProbe.getCodecs(mediaProbe.probe(renditionPath.resolve(probed).toString())));
+            if (codecs != null) {
+                masterPlaylist.append(",CODECS=\"").append(codecs).append('"');
             }
-            masterPlaylist.append(quality + "/playlist.m3u8\n");
+            masterPlaylist.append('\n');
+            masterPlaylist.append("hls/" + quality + "/playlist.m3u8\n");
         }
 
         try {
             String masterPlaylistPath = outputPath.resolve(videoId + "_master.m3u8").toString();
             Files.write(Path.of(masterPlaylistPath), masterPlaylist.toString().getBytes());
             uploadToMinio(new File(masterPlaylistPath), videoId + "/master.m3u8");
+            segmentCache.invalidate(videoId + "/master.m3u8");
         } catch (IOException e) {
             logger.error("Error creating master playlist", e);
             throw new RuntimeException("Error creating master playlist", e);
         }
     }
 
-    private void uploadHlsChunksToMinio(String hlsOutputPath, String minioPath) {
-        logger.debug("Starting upload of HLS chunks from {} to Minio path {}", hlsOutputPath, minioPath);
-        File hlsDir = new File(hlsOutputPath);
-        File[] files = hlsDir.listFiles();
-        if (files == null || files.length == 0) {
-            logger.warn("No HLS chunks found in directory: {}", hlsOutputPath);
-            return;
-        }
-        logger.info("Found {} HLS chunks to upload", files.length);
-        for (File file : files) {
-            logger.debug("Uploading HLS chunk: {}", file.getName());
-            uploadToMinio(file, minioPath + "/" + file.getName());
-        }
-        logger.info("Completed uploading {} HLS chunks to {}", files.length, minioPath);
+    private static class RenditionBitrates {
+        long peak;
+        long average;
+        String firstSegment;
+        String init;
     }
 
-    private void executeCommand(String command) {
-        logger.debug("Executing command: {}", command);
+    /**
+     * Computes bit rates from the segment sizes on disk for the segments in
+     * the rendition's local playlist, or returns null if it has none yet.
+     * Segments addressed by byte range count the length of their range.
+     */
+    private RenditionBitrates measureRendition(Path renditionPath) {
+        List<String> lines;
         try {
-            Process process = Runtime.getRuntime().exec(command);
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                logger.error("Command failed with exit code: {}. Command: {}", exitCode, command);
-                throw new RuntimeException("Command failed with exit code: " + exitCode);
+            lines = Files.readAllLines(renditionPath.resolve("playlist.m3u8"));
+        } catch (IOException e) {
+            return null;
+        }
+        RenditionBitrates bitrates = new RenditionBitrates();
+        double totalDuration = 0;
+        long totalBytes = 0;
+        double duration = 0;
+        long rangeLength = -1;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            String map = HlsPackaging.getMapUri(trimmed);
+            if (map != null && bitrates.init == null) {
+                bitrates.init = map;
+            } else if (trimmed.startsWith("#EXT-X-BYTERANGE:")) {
+                rangeLength = HlsPackaging.getByteRangeLength(trimmed);
+            } else if (trimmed.startsWith("#EXTINF:")) {
+                int comma = trimmed.indexOf(',');
+                duration = Double.parseDouble(trimmed.substring(8, comma < 0 ? trimmed.length() : comma));
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                long size = rangeLength;
+                rangeLength = -1;
+                if (size < 0) {
+                    try {
+                        size = Files.size(renditionPath.resolve(trimmed));
+                    } catch (IOException e) {
+                        continue;
+                    }
+                }
+                if (bitrates.firstSegment == null) {
+                    bitrates.firstSegment = trimmed;
+                }
+                if (duration > 0) {
+                    bitrates.peak = Math.max(bitrates.peak, (long) Math.ceil(size * 8 / duration));
+                    totalDuration += duration;
+                    totalBytes += size;
+                }
+                duration = 0;
             }
-            logger.debug("Command completed successfully with exit code: {}", exitCode);
-        } catch (Exception e) {
-            logger.error("Error executing command: {}. Error: {}", command, e.getMessage(), e);
-            throw new RuntimeException("Error executing command: " + command, e);
         }
+        if (bitrates.firstSegment == null || totalDuration <= 0) {
+            return null;
+        }
+        bitrates.average = (long) Math.ceil(totalBytes * 8 / totalDuration);
+        return bitrates;
     }
 
     private String getScaleForQuality(String quality) {
@@ -258,6 +1258,7 @@ public class VideoService {
             switch (quality) {
                 case "144p": return "256:144";
                 case "240p": return "426:240";
+                case "360p": return "640:360";
                 case "480p": return "854:480";
                 case "720p": return "1280:720";
                 case "1080p": return "1920:1080";
@@ -271,21 +1272,11 @@ public class VideoService {
         }
     }
 
-    private int getBandwidthForQuality(String quality) {
-        switch (quality) {
-            case "144p": return 300000;
-            case "240p": return 700000;
-            case "480p": return 1500000;
-            case "720p": return 3000000;
-            case "1080p": return 6000000;
-            default: throw new IllegalArgumentException("Invalid quality: " + quality);
-        }
-    }
-
     private String getResolutionForQuality(String quality) {
         switch (quality) {
             case "144p": return "256x144";
             case "240p": return "426x240";
+            case "360p": return "640x360";
             case "480p": return "854x480";
             case "720p": return "1280x720";
             case "1080p": return "1920x1080";
@@ -293,7 +1284,35 @@ public class VideoService {
         }
     }
 
-    private void generateProcessingReport(String videoId) {
+    /**
+     * Exports the stage timings of a job as {@code abr.processing.stage}
+     * timers. The single-pass and chunked pipelines encode the ladder in one
+     * step, reported as rendition "all".
+     */
+    private void recordStageMetrics(Map<String, ProcessingTimes> qualityTimings) {
+        for (Map.Entry<String, ProcessingTimes> entry : qualityTimings.entrySet()) {
+            String rendition = entry.getKey().equals("ladder") ? "all" : entry.getKey();
+            ProcessingTimes times = entry.getValue();
+            recordStage("transcode", rendition, times.transcodeTime);
+            recordStage("hls", rendition, times.hlsTime);
+            recordStage("upload", rendition, times.uploadTime);
+        }
+    }
+
+    private void recordStage(String stage, String rendition, long milliseconds) {
+        if (milliseconds <= 0) {
+            return;
+        }
+        Timer.builder("abr.processing.stage")
+                .description("Time spent in one processing stage of a job")
+                .tags("stage", stage, "rendition", rendition, "pipeline", pipeline)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(milliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    private void generateProcessingReport(String videoId, Map<String, ProcessingTimes> qualityTimings,
+                                          long totalProcessingTime) {
         StringBuilder report = new StringBuilder();
         report.append("\n=== Video Processing Report ===\n");
         report.append("Video ID: ").append(videoId).append("\n");
@@ -323,7 +1342,7 @@ public class VideoService {
             }
         }
 
-        report.append("\nTotals by Process Type:\n");
+        report.append("\nTotals by Process Type (renditions run concurrently, so these overlap):\n");
         report.append(String.format("Transcoding: %s\n", formatDuration(totalTranscode)));
         report.append(String.format("HLS Creation: %s\n", formatDuration(totalHls)));
         report.append(String.format("Uploading: %s\n", formatDuration(totalUpload)));
@@ -340,59 +1359,29 @@ public class VideoService {
     }
 
     // Remove static QUALITIES list as we'll generate it dynamically
-    private List<String> getApplicableQualities(String inputPath) {
-        // Get input video dimensions
-        String[] dimensions = getVideoDimensions(inputPath);
-        if (dimensions == null) {
+    private List<String> getApplicableQualities(MediaInfo media) {
+        if (!media.hasVideo()) {
             logger.error("Could not determine input video dimensions");
             return Arrays.asList("240p", "480p"); // fallback to safe defaults
         }
 
-        int width = Integer.parseInt(dimensions[0]);
-        int height = Integer.parseInt(dimensions[1]);
+        int width = media.getWidth();
+        int height = media.getHeight();
         List<String> applicableQualities = new ArrayList<>();
 
         // Add original quality first
         applicableQualities.add("original");
 
-        // Add lower qualities based on input resolution
+        // Add lower qualities based on input resolution. Per-title planning
+        // starts from a denser set and drops the renditions it does not need.
+        boolean perTitle = ladderPlanner.isEnabled();
+        if (perTitle && height > 1080) applicableQualities.add("1080p");
         if (height > 720) applicableQualities.add("720p");
         if (height > 480) applicableQualities.add("480p");
+        if (perTitle && height > 360) applicableQualities.add("360p");
         if (height > 240) applicableQualities.add("240p");
 
         logger.info("Determined applicable qualities for input video ({}x{}): {}", width, height, applicableQualities);
         return applicableQualities;
     }
-
-    private String[] getVideoDimensions(String videoPath) {
-        try {
-            Process process = Runtime.getRuntime().exec(String.format(
-                "ffprobe -v error -select_streams v:0 -show_entries stream=width,height -of csv=s=x:p=0 %s",
-                videoPath
-            ));
-            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String dimensions = reader.readLine();
-            process.waitFor();
-            
-            if (dimensions != null && !dimensions.isEmpty()) {
-                return dimensions.split("x");
-            }
-        } catch (Exception e) {
-            logger.error("Error getting video dimensions", e);
-        }
-        return null;
-    }
-
-    private int getBandwidthForResolution(int width, int height) {
-        // Estimate bandwidth based on resolution
-        int pixels = width * height;
-        if (pixels <= 256 * 144) return 300000;
-        if (pixels <= 426 * 240) return 700000;
-        if (pixels <= 854 * 480) return 1500000;
-        if (pixels <= 1280 * 720) return 3000000;
-        if (pixels <= 1920 * 1080) return 6000000;
-        return 8000000; // for higher resolutions
-    }
 }
-